@@ -15,6 +15,7 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
@@ -584,7 +585,18 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    /** How often the warm-up snapshot is saved, in milliseconds. */
+    static final long SNAPSHOT_PERIOD = 60 * 1000;
+
     protected void shutdown() {
+        String snapshot = System.getProperty(BufferPool.SNAPSHOT_PROPERTY);
+        if (snapshot != null && !snapshot.isEmpty()) {
+            try {
+                Database.getBufferPool().saveSnapshot(new File(snapshot));
+            } catch (IOException e) {
+                System.out.println("Unable to save the buffer pool snapshot: " + e.getMessage());
+            }
+        }
         System.out.println("Bye");
     }
 
@@ -595,6 +607,16 @@ public class Parser {
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
 
+        // reload the pages that were cached when the database last ran, and
+        // keep their list up to date for the next start
+        String snapshot = System.getProperty(BufferPool.SNAPSHOT_PROPERTY);
+        if (snapshot != null && !snapshot.isEmpty()) {
+            BufferPool bp = Database.getBufferPool();
+            int warmed = bp.warmUp(new File(snapshot), true);
+            System.out.println("Loaded " + warmed + " pages from the buffer pool snapshot.");
+            bp.scheduleSnapshots(new File(snapshot), SNAPSHOT_PERIOD);
+        }
+
         String queryFile = null;
 
         if (argv.length > 1) {
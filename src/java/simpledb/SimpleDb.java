@@ -15,7 +15,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -24,6 +24,7 @@ public class SimpleDb {
                     int numOfAttributes = Integer.parseInt(args[2]);
                     Type[] ts = new Type[numOfAttributes];
                     char fieldSeparator = ',';
+                    HeapPageFormat format = HeapPageFormat.FIXED;
 
                     if (args.length == 3)
                         for (int i = 0; i < numOfAttributes; i++)
@@ -46,12 +47,21 @@ public class SimpleDb {
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
+                        // the page format, e.g. "pax" for a table with that option
+                        if (args.length == 6) {
+                            try {
+                                format = HeapPageFormat.valueOf(args[5].toUpperCase());
+                            } catch (IllegalArgumentException e) {
+                                System.err.println("Unknown page format " + args[5]);
+                                return;
+                            }
+                        }
                     }
 
                     HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, format);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
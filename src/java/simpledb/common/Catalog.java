@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageFormat;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -162,6 +163,13 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as "name (field type [pk], ...) [options]".
+     * The options are "mmap", which reads the table's pages from a memory
+     * mapping of its file (see {@link HeapFile#HeapFile(File, TupleDesc, boolean)}),
+     * "slotted", which stores the table in variable-length
+     * {@link HeapPageFormat#SLOTTED} pages, and "pax", which stores each page
+     * column by column ({@link HeapPageFormat#PAX}), and "compressed", for a
+     * file written by {@link HeapFile#compressFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -199,10 +207,31 @@ public class Catalog {
                         }
                     }
                 }
+                // table options follow the field list, e.g. "name (f int, g string) mmap"
+                boolean memoryMapped = false;
+                boolean compressed = false;
+                HeapPageFormat format = HeapPageFormat.FIXED;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.length() > 0) {
+                    for (String opt : options.split("\\s+")) {
+                        if (opt.equalsIgnoreCase("mmap"))
+                            memoryMapped = true;
+                        else if (opt.equalsIgnoreCase("slotted"))
+                            format = HeapPageFormat.SLOTTED;
+                        else if (opt.equalsIgnoreCase("pax"))
+                            format = HeapPageFormat.PAX;
+                        else if (opt.equalsIgnoreCase("compressed"))
+                            compressed = true;
+                        else {
+                            System.out.println("Unknown table option " + opt);
+                            System.exit(0);
+                        }
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, format, memoryMapped, compressed);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -15,6 +15,8 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private final Predicate p;
     private  OpIterator child;
+    // true once a SeqScan child tests p itself, see SeqScan.pushDown
+    private boolean pushedDown;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -45,6 +47,8 @@ public class Filter extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
+        // a scan of a PAX table tests int predicates off the column
+        pushedDown = child instanceof SeqScan && ((SeqScan) child).pushDown(p);
         child.open();
     }
 
@@ -73,7 +77,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple next = child.next();
-            if (p.filter(next)) {
+            if (pushedDown || p.filter(next)) {
                 return next;
             }
         }
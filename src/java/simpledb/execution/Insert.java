@@ -4,13 +4,14 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
-import simpledb.storage.DbFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -25,6 +26,9 @@ public class Insert extends Operator {
     private int tableId;
     private boolean inserted = false;
 
+    // number of tuples read from the child per call to BufferPool.insertTuples
+    private static final int BATCH_SIZE = 4096;
+
     /**
      * Constructor.
      *
@@ -78,7 +82,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -86,14 +90,20 @@ public class Insert extends Operator {
             return null;
         }
 
+        // hand the child's tuples to the buffer pool in batches, so each
+        // batch is inserted with a single call
         int count = 0;
-        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Tuple> batch = new ArrayList<>(BATCH_SIZE);
         while (child.hasNext()) {
-            try {
-                file.insertTuple(tid, child.next());
-                count += 1;
-            } catch (IOException e) {
-                throw new DbException("Insert: Error: IOException when Inserting");
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                try {
+                    Database.getBufferPool().insertTuples(tid, tableId, batch);
+                } catch (IOException e) {
+                    throw new DbException("Insert: Error: IOException when Inserting");
+                }
+                count += batch.size();
+                batch.clear();
             }
         }
         inserted = true;
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.common.Database;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
@@ -26,6 +27,8 @@ public class SeqScan implements OpIterator {
     private String tableAlias;
     private DbFile dbFile;
     private DbFileIterator dbFileIterator;
+    // the predicate the table tests for this scan, see pushDown
+    private Predicate filter;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -96,6 +99,26 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Makes this scan hand out only the tuples that satisfy p, if its table
+     * can test p itself while reading its pages (see
+     * {@link HeapFile#iterator(TransactionId, Predicate)}). Only to be called
+     * while the scan is not open.
+     *
+     * @return true if the scan now tests p, false if its table cannot or the
+     *         scan already tests another predicate
+     */
+    public boolean pushDown(Predicate p) {
+        if (!(dbFile instanceof HeapFile) || (filter != null && filter != p)) {
+            return false;
+        }
+        if (filter == null) {
+            filter = p;
+            dbFileIterator = ((HeapFile) dbFile).iterator(transactionId, p);
+        }
+        return true;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         dbFileIterator.open();
@@ -1,6 +1,8 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -19,6 +21,18 @@ import simpledb.transaction.TransactionId;
  * a set of internal pages, and a set of leaf pages, which contain a collection of tuples
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
+ * <p>
+ * Operations find their leaf page by crabbing down the tree. The lock taken on an internal
+ * page (or the root pointer page) on the way is a latch: it is held only until the child
+ * is locked and known to be safe, and then released, unless the transaction held a lock on
+ * the page before. Leaf pages stay locked until the transaction completes, as do the pages
+ * an operation changes. Lookups and most inserts latch the internal pages shared, so
+ * transactions working on different subtrees do not wait for each other. An insert that
+ * finds its leaf full descends again, latching exclusively the pages that the split may
+ * reach, and keeps only those that are full: a page with an empty slot takes the entry of
+ * a split below it without splitting itself, so the pages above it are let go.
+ * Deletes lock the leaf through the tuple's record id, and the pages that a merge or steal
+ * changes through the parent pointers, from below.
  * 
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -32,6 +46,9 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private FileChannel channel;
+	private final boolean memoryMapped;
+	private MappedFile mappedFile;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +59,25 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param memoryMapped - if true, pages are read from a memory mapping of f
+	 *            rather than with read calls
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean memoryMapped) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.memoryMapped = memoryMapped;
 	}
 
 	/**
@@ -77,6 +109,28 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Returns the channel backing this BTreeFile, opening it on first use.
+	 * The channel is shared by all readers and writers of the file; every
+	 * access uses positional reads and writes so no file pointer is shared.
+	 */
+	synchronized FileChannel getChannel() throws IOException {
+		if (channel == null || !channel.isOpen()) {
+			channel = new RandomAccessFile(f, "rw").getChannel();
+		}
+		return channel;
+	}
+
+	/**
+	 * Returns the offset in the file at which the given page starts.
+	 */
+	private static long pageOffset(BTreePageId id) {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return 0;
+		}
+		return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -86,50 +140,57 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
+		int pageSize = id.pgcateg() == BTreePageId.ROOT_PTR ? BTreeRootPtrPage.getPageSize() : BufferPool.getPageSize();
+
+		try {
+			ByteBuffer data;
+			if (memoryMapped) {
+				data = getMappedFile().slice(pageOffset(id), pageSize);
+			} else {
+				data = ByteBuffer.allocate(pageSize);
+				long offset = pageOffset(id);
+				FileChannel ch = getChannel();
+				while (data.hasRemaining()) {
+					if (ch.read(data, offset + data.position()) < 0) {
+						if (data.position() == 0) {
+							throw new IllegalArgumentException("Read past end of table");
+						}
+						throw new IllegalArgumentException("Unable to read "
+								+ pageSize + " bytes from BTreeFile");
+					}
+				}
+				data.rewind();
+			}
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+			if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, toByteArray(data));
+			} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, data, keyField);
+			} else if (id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, data, keyField);
+			} else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, toByteArray(data));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private synchronized MappedFile getMappedFile() throws IOException {
+		if (mappedFile == null) {
+			mappedFile = new MappedFile(getChannel());
+		}
+		return mappedFile;
+	}
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BTreeRootPtrPage.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
-            } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException("Unable to read "
-                            + BufferPool.getPageSize() + " bytes from BTreeFile");
-                }
-                Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        // Close the file on success or error
-        // Ignore failures closing the file
-    }
+	private static byte[] toByteArray(ByteBuffer data) {
+		if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) {
+			return data.array();
+		}
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		return bytes;
+	}
 
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
@@ -139,17 +200,30 @@ public class BTreeFile implements DbFile {
 	 */
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
-		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+		writePageData(pageOffset(id), page.getPageData());
+	}
+
+	/**
+	 * Write raw page data at the given offset of the file.
+	 */
+	private void writePageData(long offset, byte[] data) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		FileChannel ch = getChannel();
+		while (buf.hasRemaining()) {
+			ch.write(buf, offset + buf.position());
 		}
-		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+	}
+
+	/**
+	 * Force all pages written to this file to disk.
+	 */
+	public void force() throws IOException {
+		FileChannel ch;
+		synchronized (this) {
+			ch = channel;
+		}
+		if (ch != null && ch.isOpen()) {
+			ch.force(true);
 		}
 	}
 	
@@ -169,10 +243,10 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
-	 * the left-most page possibly containing the key field f. It locks all internal
-	 * nodes along the path to the leaf node with READ_ONLY permission, and locks the 
-	 * leaf node with permission perm.
+	 * Function which finds and locks the leaf page in the B+ tree corresponding to
+	 * the left-most page possibly containing the key field f. It latches the internal
+	 * nodes along the path to the leaf node with READ_ONLY permission, one at a time,
+	 * and locks the leaf node with permission perm.
 	 * 
 	 * If f is null, it finds the left-most leaf page -- used for the iterator
 	 * 
@@ -182,30 +256,141 @@ public class BTreeFile implements DbFile {
 	 * @param perm - the permissions with which to lock the leaf page
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
+	 * @see #findLeafPage(TransactionId, Map, List, BTreePageId, Permissions, Field, boolean)
 	 * 
 	 */
 	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm,
                                        Field f)
 					throws DbException, TransactionAbortedException {
 		// some code goes here
-        return null;
+		return findLeafPage(tid, dirtypages, new ArrayList<>(), pid, perm, f, false);
+	}
+
+	/**
+	 * Finds and locks the leaf page for the key field f, crabbing down from page pid: each
+	 * page is locked before the latch on its parent is let go, and the latches above a page
+	 * are let go once the page is locked and safe. When the descent is to split the leaf
+	 * (split is true), the internal pages are latched with READ_WRITE permission and a page
+	 * is safe only if it has an empty slot, since a split below it then stops there; the
+	 * latches kept are those of the pages the split changes. Otherwise the internal pages
+	 * are latched with READ_ONLY permission and every page is safe.
+	 * 
+	 * A lock the transaction held on a page before the descent is not a latch, and is kept.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param latched - the latches held above pid. On return, the latches kept, followed by
+	 * the leaf page if its lock was not held before
+	 * @param pid - the page to start from
+	 * @param perm - the permissions with which to lock the leaf page
+	 * @param f - the field to search for, or null for the left-most leaf page
+	 * @param split - whether the leaf page is to be split
+	 * @return the left-most leaf page possibly containing the key field f
+	 * @see #unlatch(TransactionId, Map, List)
+	 */
+	private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, List<BTreePageId> latched,
+			BTreePageId pid, Permissions perm, Field f, boolean split)
+					throws DbException, TransactionAbortedException {
+		while(true) {
+			boolean leaf = pid.pgcateg() == BTreePageId.LEAF;
+			boolean latch = isLatch(tid, pid);
+			Permissions pagePerm = leaf ? perm : split ? Permissions.READ_WRITE : Permissions.READ_ONLY;
+			BTreePage page = (BTreePage) getPage(tid, dirtypages, pid, pagePerm);
+			if(!split || page.getNumEmptySlots() > 0) {
+				unlatch(tid, dirtypages, latched);
+			}
+			if(latch) {
+				latched.add(pid);
+			}
+			if(leaf) {
+				return (BTreeLeafPage) page;
+			}
+			pid = findChild((BTreeInternalPage) page, f);
+		}
+	}
+
+	/**
+	 * @return the left-most child of an internal page that may contain the key field f,
+	 * or the left-most child if f is null
+	 */
+	private static BTreePageId findChild(BTreeInternalPage page, Field f) throws DbException {
+		Iterator<BTreeEntry> it = page.iterator();
+		BTreeEntry e = null;
+		while(it.hasNext()) {
+			e = it.next();
+			if(f == null || f.compare(Op.LESS_THAN_OR_EQ, e.getKey())) {
+				return e.getLeftChild();
+			}
+		}
+		if(e == null) {
+			throw new DbException("internal page " + page.getId().getPageNumber() + " has no entries");
+		}
+		return e.getRightChild();
+	}
+
+	/**
+	 * @return true if the lock the transaction is about to take on a page is a latch,
+	 * because it holds no lock on the page yet
+	 */
+	private static boolean isLatch(TransactionId tid, BTreePageId pid) {
+		return tid != null && !Database.getBufferPool().holdsLock(tid, pid);
+	}
+
+	/**
+	 * Lets go of latches, which must be on pages that were not changed, and clears the list.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages, from which the pages are removed
+	 * @param latched - the pages to let go of
+	 */
+	private static void unlatch(TransactionId tid, Map<PageId, Page> dirtypages, List<BTreePageId> latched) {
+		for(BTreePageId pid : latched) {
+			dirtypages.remove(pid);
+			Database.getBufferPool().unsafeReleasePage(tid, pid);
+		}
+		latched.clear();
+	}
+
+	/**
+	 * Latches the root pointer page with READ_ONLY permission, unless the transaction holds
+	 * a lock on it already.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param latched - the list to add the latch to
+	 * @return the root pointer page
+	 */
+	private BTreeRootPtrPage latchRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages,
+			List<BTreePageId> latched) throws DbException, IOException, TransactionAbortedException {
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		boolean latch = isLatch(tid, rootPtrId);
+		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
+		if(latch) {
+			latched.add(rootPtrId);
+		}
+		return rootPtr;
 	}
 	
 	/**
-	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
-	 * Used by the BTreeFile iterator.
+	 * Convenience method to find a leaf page when there is no dirtypages HashMap,
+	 * starting from the root pointer page. Used by the BTreeFile iterator.
 	 * @see #findLeafPage(TransactionId, Map, BTreePageId, Permissions, Field)
 	 * 
 	 * @param tid - the transaction id
-	 * @param pid - the current page being searched
 	 * @param f - the field to search for
 	 * @return the left-most leaf page possibly containing the key field f
 	 * 
 	 */
-	BTreeLeafPage findLeafPage(TransactionId tid, BTreePageId pid,
-                               Field f)
+	BTreeLeafPage findLeafPage(TransactionId tid, Field f)
 					throws DbException, TransactionAbortedException {
-		return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		List<BTreePageId> latched = new ArrayList<>();
+		BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+		if(isLatch(tid, rootPtrId)) {
+			latched.add(rootPtrId);
+		}
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+		return findLeafPage(tid, dirtypages, latched, rootPtr.getRootId(), Permissions.READ_ONLY, f, false);
 	}
 
 	/**
@@ -239,8 +424,35 @@ public class BTreeFile implements DbFile {
 		// the new entry.  getParentWithEmtpySlots() will be useful here.  Don't forget to update
 		// the sibling pointers of all the affected leaf pages.  Return the page into which a 
 		// tuple with the given key field should be inserted.
-        return null;
-		
+		BTreeLeafPage newPage = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = page.reverseIterator();
+		int half = page.getNumTuples() / 2;
+		while(moving.size() < half && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(Tuple t : moving) {
+			page.deleteTuple(t);
+			newPage.insertTuple(t);
+		}
+
+		// the new page goes between the page and its right sibling
+		BTreePageId rightId = page.getRightSiblingId();
+		if(rightId != null) {
+			BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			right.setLeftSiblingId(newPage.getId());
+		}
+		newPage.setRightSiblingId(rightId);
+		newPage.setLeftSiblingId(page.getId());
+		page.setRightSiblingId(newPage.getId());
+
+		Field middle = newPage.iterator().next().getField(keyField);
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle);
+		parent.insertEntry(new BTreeEntry(middle, page.getId(), newPage.getId()));
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+
+		return field.compare(Op.GREATER_THAN_OR_EQ, middle) ? newPage : page;
 	}
 	
 	/**
@@ -277,7 +489,30 @@ public class BTreeFile implements DbFile {
 		// the parent pointers of all the children moving to the new page.  updateParentPointers()
 		// will be useful here.  Return the page into which an entry with the given key field
 		// should be inserted.
-		return null;
+		BTreeInternalPage newPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+		List<BTreeEntry> moving = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		int half = page.getNumEntries() / 2;
+		while(moving.size() < half && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(BTreeEntry e : moving) {
+			page.deleteKeyAndRightChild(e);
+			newPage.insertEntry(e);
+		}
+
+		// the last entry left on the page is pushed up
+		BTreeEntry middle = page.reverseIterator().next();
+		page.deleteKeyAndRightChild(middle);
+		middle.setLeftChild(page.getId());
+		middle.setRightChild(newPage.getId());
+		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), middle.getKey());
+		parent.insertEntry(middle);
+		page.setParentId(parent.getId());
+		newPage.setParentId(parent.getId());
+		updateParentPointers(tid, dirtypages, newPage);
+
+		return field.compare(Op.GREATER_THAN, middle.getKey()) ? newPage : page;
 	}
 	
 	/**
@@ -426,28 +661,45 @@ public class BTreeFile implements DbFile {
 	public List<Page> insertTuple(TransactionId tid, Tuple t)
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
+		List<BTreePageId> latched = new ArrayList<>();
+		Field key = t.getField(keyField);
+
+		try {
+			// get a read latch on the root pointer page and use it to locate the root page
+			BTreeRootPtrPage rootPtr = latchRootPtrPage(tid, dirtypages, latched);
+			BTreePageId rootId = rootPtr.getRootId();
+
+			if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
+				rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
+				rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
+				rootPtr.setRootId(rootId);
+				// the root pointer page changed, so it stays locked
+				latched.clear();
+			}
 
-		// get a read lock on the root pointer page and use it to locate the root page
-		BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
-		BTreePageId rootId = rootPtr.getRootId();
+			// find and lock the left-most leaf page corresponding to the key field,
+			// latching the internal pages shared on the way
+			BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, latched, rootId, Permissions.READ_WRITE, key, false);
+			if(leafPage.getNumEmptySlots() == 0) {
+				// the leaf page must split. Let go of it and descend again, latching the
+				// pages the split may change exclusively, then split the leaf page if
+				// it is still full
+				unlatch(tid, dirtypages, latched);
+				rootPtr = latchRootPtrPage(tid, dirtypages, latched);
+				leafPage = findLeafPage(tid, dirtypages, latched, rootPtr.getRootId(), Permissions.READ_WRITE, key, true);
+				if(leafPage.getNumEmptySlots() == 0) {
+					leafPage = splitLeafPage(tid, dirtypages, leafPage, key);
+				}
+			}
 
-		if(rootId == null) { // the root has just been created, so set the root pointer to point to it		
-			rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
-			rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-			rootPtr.setRootId(rootId);
-		}
+			// insert the tuple into the leaf page
+			leafPage.insertTuple(t);
 
-		// find and lock the left-most leaf page corresponding to the key field,
-		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
-		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			return new ArrayList<>(dirtypages.values());
+		} catch(DbException | IOException | TransactionAbortedException | RuntimeException e) {
+			markDirty(tid, dirtypages);
+			throw e;
 		}
-
-		// insert the tuple into the leaf page
-		leafPage.insertTuple(t);
-
-        return new ArrayList<>(dirtypages.values());
 	}
 	
 	/**
@@ -569,6 +821,20 @@ public class BTreeFile implements DbFile {
         // Move some of the tuples from the sibling to the page so
 		// that the tuples are evenly distributed. Be sure to update
 		// the corresponding parent entry.
+		int move = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+		List<Tuple> moving = new ArrayList<>();
+		Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+		while(moving.size() < move && it.hasNext()) {
+			moving.add(it.next());
+		}
+		for(Tuple t : moving) {
+			sibling.deleteTuple(t);
+			page.insertTuple(t);
+		}
+
+		BTreeLeafPage right = isRightSibling ? sibling : page;
+		entry.setKey(right.iterator().next().getField(keyField));
+		parent.updateEntry(entry);
 	}
 
 	/**
@@ -648,6 +914,19 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int move = (leftSibling.getNumEntries() - page.getNumEntries()) / 2;
+		BTreePageId firstChild = page.iterator().next().getLeftChild();
+		for(int i = 0; i < move; i++) {
+			BTreeEntry last = leftSibling.reverseIterator().next();
+			// the parent's key comes down in front of the page's entries, and the
+			// sibling's last key goes up in its place
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), last.getRightChild(), firstChild));
+			firstChild = last.getRightChild();
+			parentEntry.setKey(last.getKey());
+			leftSibling.deleteKeyAndRightChild(last);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -675,6 +954,19 @@ public class BTreeFile implements DbFile {
 		// that the entries are evenly distributed. Be sure to update
 		// the corresponding parent entry. Be sure to update the parent
 		// pointers of all children in the entries that were moved.
+		int move = (rightSibling.getNumEntries() - page.getNumEntries()) / 2;
+		BTreePageId lastChild = page.reverseIterator().next().getRightChild();
+		for(int i = 0; i < move; i++) {
+			BTreeEntry first = rightSibling.iterator().next();
+			// the parent's key comes down after the page's entries, and the
+			// sibling's first key goes up in its place
+			page.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild, first.getLeftChild()));
+			lastChild = first.getLeftChild();
+			parentEntry.setKey(first.getKey());
+			rightSibling.deleteKeyAndLeftChild(first);
+		}
+		parent.updateEntry(parentEntry);
+		updateParentPointers(tid, dirtypages, page);
 	}
 	
 	/**
@@ -705,6 +997,22 @@ public class BTreeFile implements DbFile {
 		// the sibling pointers, and make the right page available for reuse.
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		List<Tuple> moving = new ArrayList<>();
+		rightPage.iterator().forEachRemaining(moving::add);
+		for(Tuple t : moving) {
+			rightPage.deleteTuple(t);
+			leftPage.insertTuple(t);
+		}
+
+		BTreePageId rightId = rightPage.getRightSiblingId();
+		if(rightId != null) {
+			BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, rightId, Permissions.READ_WRITE);
+			right.setLeftSiblingId(leftPage.getId());
+		}
+		leftPage.setRightSiblingId(rightId);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 
 	/**
@@ -738,6 +1046,21 @@ public class BTreeFile implements DbFile {
 		// and make the right page available for reuse
 		// Delete the entry in the parent corresponding to the two pages that are merging -
 		// deleteParentEntry() will be useful here
+		// the parent's key comes down between the two pages' entries
+		BTreePageId lastChild = leftPage.reverseIterator().next().getRightChild();
+		BTreePageId firstChild = rightPage.iterator().next().getLeftChild();
+		leftPage.insertEntry(new BTreeEntry(parentEntry.getKey(), lastChild, firstChild));
+
+		List<BTreeEntry> moving = new ArrayList<>();
+		rightPage.iterator().forEachRemaining(moving::add);
+		for(BTreeEntry e : moving) {
+			rightPage.deleteKeyAndLeftChild(e);
+			leftPage.insertEntry(e);
+		}
+		updateParentPointers(tid, dirtypages, leftPage);
+
+		setEmptyPage(tid, dirtypages, rightPage.getId().getPageNumber());
+		deleteParentEntry(tid, dirtypages, leftPage, parent, parentEntry);
 	}
 	
 	/**
@@ -802,19 +1125,42 @@ public class BTreeFile implements DbFile {
 			throws DbException, IOException, TransactionAbortedException {
 		Map<PageId, Page> dirtypages = new HashMap<>();
 
-		BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
-				BTreePageId.LEAF);
-		BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
-		page.deleteTuple(t);
+		try {
+			BTreePageId pageId = new BTreePageId(tableid, t.getRecordId().getPageId().getPageNumber(),
+					BTreePageId.LEAF);
+			BTreeLeafPage page = (BTreeLeafPage) getPage(tid, dirtypages, pageId, Permissions.READ_WRITE);
+			page.deleteTuple(t);
+
+			// if the page is below minimum occupancy, get some tuples from its siblings
+			// or merge with one of the siblings
+			int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
+			if(page.getNumEmptySlots() > maxEmptySlots) { 
+				handleMinOccupancyPage(tid, dirtypages, page);
+			}
 
-		// if the page is below minimum occupancy, get some tuples from its siblings
-		// or merge with one of the siblings
-		int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples()/2; // ceiling
-		if(page.getNumEmptySlots() > maxEmptySlots) { 
-			handleMinOccupancyPage(tid, dirtypages, page);
+			return new ArrayList<>(dirtypages.values());
+		} catch(DbException | IOException | TransactionAbortedException | RuntimeException e) {
+			markDirty(tid, dirtypages);
+			throw e;
 		}
+	}
 
-        return new ArrayList<>(dirtypages.values());
+	/**
+	 * Marks the pages an insert or delete changed before it failed dirty. The pages are
+	 * changed in place, so the transaction's abort, which must follow the failure, only
+	 * puts them back if the buffer pool knows the transaction dirtied them.
+	 * 
+	 * @param tid - the transaction id
+	 * @param dirtypages - the pages the insert or delete changed, and still has locked
+	 * @throws DbException
+	 */
+	private void markDirty(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException {
+		if(tid == null) {
+			return;
+		}
+		for(Page p : dirtypages.values()) {
+			Database.getBufferPool().markDirty(tid, p);
+		}
 	}
 
 	/**
@@ -832,13 +1178,10 @@ public class BTreeFile implements DbFile {
 		synchronized(this) {
 			if(f.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				writePageData(0, emptyRootPtrData);
+				writePageData(emptyRootPtrData.length, emptyLeafData);
 			}
 		}
 
@@ -894,11 +1237,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				writePageData(getChannel().size(), emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -929,10 +1269,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		writePageData(pageOffset(newPageId), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1080,13 +1417,27 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 * Open this iterator by getting an iterator on the first leaf page
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, null);
+		moveTo(f.findLeafPage(tid, null).getId());
 		it = curp.iterator();
 	}
 
+	/**
+	 * Move to a leaf page, pinned in the buffer pool while the iterator is
+	 * on it, and release the page the iterator was on.
+	 */
+	private void moveTo(BTreePageId pid) throws TransactionAbortedException, DbException {
+		BTreeLeafPage next = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
+				pid, Permissions.READ_ONLY);
+		unpin();
+		curp = next;
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(curp.getId());
+		}
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples or
 	 * from the next page by following the right sibling pointer.
@@ -1101,11 +1452,11 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
+				unpin();
 				curp = null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				moveTo(nextp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1130,6 +1481,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
 		curp = null;
 	}
@@ -1165,19 +1517,33 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 * for the given predicate operation
 	 */
 	public void open() throws DbException, TransactionAbortedException {
-		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-		BTreePageId root = rootPtr.getRootId();
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+			moveTo(f.findLeafPage(tid, ipred.getField()).getId());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			moveTo(f.findLeafPage(tid, null).getId());
 		}
 		it = curp.iterator();
 	}
 
+	/**
+	 * Move to a leaf page, pinned in the buffer pool while the iterator is
+	 * on it, and release the page the iterator was on.
+	 */
+	private void moveTo(BTreePageId pid) throws TransactionAbortedException, DbException {
+		BTreeLeafPage next = (BTreeLeafPage) Database.getBufferPool().pinPage(tid,
+				pid, Permissions.READ_ONLY);
+		unpin();
+		curp = next;
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(curp.getId());
+		}
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
 	 * the predicate or from the next page by following the right sibling pointer.
@@ -1213,8 +1579,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				moveTo(nextp);
 				it = curp.iterator();
 			}
 		}
@@ -1235,6 +1600,8 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	 */
 	public void close() {
 		super.close();
+		unpin();
 		it = null;
+		curp = null;
 	}
 }
@@ -2,6 +2,7 @@ package simpledb.index;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.common.Catalog;
 import simpledb.common.Database;
@@ -10,6 +11,7 @@ import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.storage.BufferPool;
+import simpledb.storage.ByteBufferInputStream;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
@@ -71,9 +73,20 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeInternalPage from a buffer holding the page as laid out on disk,
+	 * e.g. a slice of a memory-mapped file. The page is parsed directly out of
+	 * the buffer; the buffer's position is not changed.
+	 *
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 */
+	public BTreeInternalPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxEntries() + 1;
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data));
 
 		// Read the parent pointer
 		try {
@@ -765,8 +778,17 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
-				if(key != null && childId != null) {
+				if(key == null) {
+					continue;
+				}
+				// the left child is in the closest used slot before the entry's, which
+				// is not the slot just before it once deletions have left a gap
+				int left = entry - 1;
+				while(left > 0 && !p.isSlotUsed(left)) {
+					--left;
+				}
+				BTreePageId childId = p.getChildId(left);
+				if(childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
 					nextChildId = childId;
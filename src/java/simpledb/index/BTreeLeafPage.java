@@ -10,6 +10,7 @@ import simpledb.storage.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -66,9 +67,20 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
+		this(id, ByteBuffer.wrap(data), key);
+	}
+
+	/**
+	 * Create a BTreeLeafPage from a buffer holding the page as laid out on disk,
+	 * e.g. a slice of a memory-mapped file. The page is parsed directly out of
+	 * the buffer; the buffer's position is not changed.
+	 *
+	 * @see #BTreeLeafPage(BTreePageId, byte[], int)
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer data, int key) throws IOException {
 		super(id, key);
 		this.numSlots = getMaxTuples();
-		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+		DataInputStream dis = new DataInputStream(new ByteBufferInputStream(data));
 
 		// Read the parent and sibling pointers
 		try {
@@ -3,8 +3,6 @@ package simpledb.index;
 import simpledb.storage.BufferPool;
 import simpledb.storage.PageId;
 
-import java.util.Objects;
-
 /** Unique identifier for BTreeInternalPage, BTreeLeafPage, BTreeHeaderPage
  *  and BTreeRootPtrPage objects. 
  */
@@ -75,7 +73,12 @@ public class BTreePageId implements PageId {
 	 * @see BufferPool
 	 */
 	public int hashCode() {
-	    return Objects.hash(tableId, pgNo, pgcateg);
+	    return (31 * tableId + pgNo) * 31 + pgcateg;
+	}
+
+	/** B+ tree page ids are of kind 1 + their category. */
+	public long pack() {
+		return PageId.pack(tableId, 1 + pgcateg, pgNo);
 	}
 
 	/**
@@ -0,0 +1,184 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The {@link ReplacementPolicy#ARC} cache (Megiddo and Modha, adaptive
+ * replacement cache). Pages accessed once since they came in are kept in an
+ * LRU list T1, pages accessed again in an LRU list T2. The ids of pages
+ * evicted from each list are remembered in two ghost lists, B1 and B2, which
+ * together with T1 and T2 cover twice the cache.
+ * <p>
+ * Evictions take from T1 while it is larger than a target size p, and from
+ * T2 otherwise. p adapts to the workload: a page that comes back while its id
+ * is in B1 shows T1 was too small and grows p, one that comes back from B2
+ * shrinks it. A scan only fills T1, so it cannot flush out the pages of T2
+ * unless the workload keeps asking for the pages it evicted from T1.
+ * <p>
+ * All lists are LinkedHashMaps in insertion order, so every operation but
+ * eviction is O(1). Eviction walks T1 or T2 past the pages canEvict rejects,
+ * one step per pinned or unevictable dirty page in its way.
+ *
+ * @Threadsafe
+ */
+class ArcCache implements Cache {
+
+    private int capacity;
+    // least recently used first
+    private final LinkedHashMap<PageId, Page> t1 = new LinkedHashMap<>();
+    private final LinkedHashMap<PageId, Page> t2 = new LinkedHashMap<>();
+    private final LinkedHashMap<PageId, Boolean> b1 = new LinkedHashMap<>();
+    private final LinkedHashMap<PageId, Boolean> b2 = new LinkedHashMap<>();
+    // pages read ahead whose first get is yet to come
+    private final HashSet<PageId> prefetched = new HashSet<>();
+    // the target size of t1
+    private int p;
+
+    ArcCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized boolean containsKey(PageId pid) {
+        return t1.containsKey(pid) || t2.containsKey(pid);
+    }
+
+    @Override
+    public synchronized Page get(PageId pid) {
+        if (prefetched.remove(pid)) {
+            return t1.containsKey(pid) ? t1.get(pid) : t2.get(pid);
+        }
+        Page pg = t1.remove(pid);
+        if (pg == null) {
+            pg = t2.remove(pid);
+        }
+        if (pg != null) {
+            t2.put(pid, pg);
+        }
+        return pg;
+    }
+
+    @Override
+    public synchronized Page peek(PageId pid) {
+        Page pg = t1.get(pid);
+        return pg != null ? pg : t2.get(pid);
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        if (t1.containsKey(pid)) {
+            t1.put(pid, pg);
+            return;
+        }
+        if (t2.containsKey(pid)) {
+            t2.put(pid, pg);
+            return;
+        }
+        if (size() >= capacity) {
+            throw new IllegalStateException("cache full");
+        }
+
+        if (b1.remove(pid) != null) {
+            p = Math.min(capacity, p + Math.max(1, b2.size() / Math.max(1, b1.size())));
+            t2.put(pid, pg);
+        } else if (b2.remove(pid) != null) {
+            p = Math.max(0, p - Math.max(1, b1.size() / Math.max(1, b2.size())));
+            t2.put(pid, pg);
+        } else {
+            t1.put(pid, pg);
+        }
+
+        trimGhosts();
+    }
+
+    private void trimGhosts() {
+        // the ghosts of T1 cover at most the rest of the cache, all of them
+        // at most twice the cache
+        while (t1.size() + b1.size() > capacity && !b1.isEmpty()) {
+            removeEldest(b1);
+        }
+        while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity && !b2.isEmpty()) {
+            removeEldest(b2);
+        }
+    }
+
+    private static void removeEldest(LinkedHashMap<PageId, ?> list) {
+        Iterator<PageId> it = list.keySet().iterator();
+        it.next();
+        it.remove();
+    }
+
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        boolean present = containsKey(pid);
+        put(pid, pg);
+        if (!present) {
+            prefetched.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        prefetched.remove(pid);
+        Page pg = t1.remove(pid);
+        return pg != null ? pg : t2.remove(pid);
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        boolean fromT1 = !t1.isEmpty() && t1.size() > p;
+        for (int attempt = 0; attempt < 2; attempt++, fromT1 = !fromT1) {
+            Page pg = evictFrom(fromT1 ? t1 : t2, canEvict);
+            if (pg != null) {
+                prefetched.remove(pg.getId());
+                (fromT1 ? b1 : b2).put(pg.getId(), Boolean.TRUE);
+                return pg;
+            }
+        }
+        return null;
+    }
+
+    private static Page evictFrom(LinkedHashMap<PageId, Page> list, Predicate<Page> canEvict) {
+        Iterator<Page> it = list.values().iterator();
+        while (it.hasNext()) {
+            Page pg = it.next();
+            if (canEvict.test(pg)) {
+                it.remove();
+                return pg;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return t1.size() + t2.size();
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (size() > capacity) {
+            throw new IllegalArgumentException("cache holds more than " + capacity + " pages");
+        }
+        this.capacity = capacity;
+        p = Math.min(p, capacity);
+        trimGhosts();
+    }
+
+    @Override
+    public synchronized List<PageId> pageIds() {
+        List<PageId> ids = new ArrayList<>(t1.keySet());
+        ids.addAll(t2.keySet());
+        return ids;
+    }
+}
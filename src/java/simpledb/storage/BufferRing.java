@@ -0,0 +1,98 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+
+/**
+ * A small, private ring of page frames for a large sequential scan, passed as
+ * a hint to {@link BufferPool#getPage(simpledb.transaction.TransactionId,
+ * PageId, simpledb.common.Permissions, BufferRing)}. Pages the scan reads go
+ * to the ring instead of the shared pool, and the ring recycles its oldest
+ * frame for each new page, so a scan of a table larger than the pool does
+ * not push the pages other queries use out of the pool.
+ * <p>
+ * Pages already in the shared pool are still found there. A page is only
+ * served from the ring if it has not been written or discarded by the pool
+ * since it was read, which the pool tracks with write stamps.
+ *
+ * @Threadsafe
+ */
+public class BufferRing {
+
+    /** The number of frames of a ring made with the default constructor. */
+    public static final int DEFAULT_FRAMES = 32;
+
+    private final PageId[] ids;
+    private final Page[] pages;
+    private final long[] stamps;
+    private final HashMap<PageId, Integer> frameOf;
+    // the frame the next page goes to
+    private int next;
+
+    public BufferRing() {
+        this(DEFAULT_FRAMES);
+    }
+
+    /**
+     * @param frames the number of pages the ring holds
+     */
+    public BufferRing(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        }
+        this.ids = new PageId[frames];
+        this.pages = new Page[frames];
+        this.stamps = new long[frames];
+        this.frameOf = new HashMap<>(frames * 2);
+    }
+
+    /** @return the number of pages the ring holds */
+    public int getNumFrames() {
+        return pages.length;
+    }
+
+    /**
+     * @return true if the ring holds a page with the given id
+     */
+    synchronized boolean contains(PageId pid) {
+        return frameOf.containsKey(pid);
+    }
+
+    /**
+     * Returns the page with the given id if the ring holds it and it was read
+     * when the page's write stamp was stamp, null otherwise.
+     */
+    synchronized Page get(PageId pid, long stamp) {
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            return null;
+        }
+        if (stamps[f] != stamp) {
+            // written or discarded since it was read
+            frameOf.remove(pid);
+            ids[f] = null;
+            pages[f] = null;
+            return null;
+        }
+        return pages[f];
+    }
+
+    /**
+     * Puts a page read when its write stamp was stamp in the ring, in place
+     * of the oldest page of the ring.
+     */
+    synchronized void put(Page pg, long stamp) {
+        PageId pid = pg.getId();
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            f = next;
+            next = (next + 1) % pages.length;
+            if (ids[f] != null) {
+                frameOf.remove(ids[f]);
+            }
+            ids[f] = pid;
+            frameOf.put(pid, f);
+        }
+        pages[f] = pg;
+        stamps[f] = stamp;
+    }
+}
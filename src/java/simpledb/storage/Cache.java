@@ -0,0 +1,92 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The page table of a {@link BufferPool}: the pages in memory, by id, and
+ * the replacement policy that decides which of them to evict when the pool
+ * needs room. Each {@link ReplacementPolicy} has its own implementation.
+ * <p>
+ * A cache never grows past its capacity on its own; the buffer pool calls
+ * {@link #evictPage} to make room before it puts a new page.
+ *
+ * @Threadsafe
+ */
+interface Cache {
+
+    /**
+     * @return true if the page is in the cache. Does not count as an access.
+     */
+    boolean containsKey(PageId pid);
+
+    /**
+     * Returns the page with the given id, or null if it is not in the cache.
+     * Counts as an access to the page.
+     */
+    Page get(PageId pid);
+
+    /**
+     * Returns the page with the given id, or null if it is not in the cache,
+     * without counting as an access, e.g. to write it out.
+     */
+    Page peek(PageId pid);
+
+    /**
+     * Adds a page to the cache, which counts as an access to it, or replaces
+     * the cached version of the page, which need not: the buffer pool puts
+     * back pages it has just handed out and the caller has modified.
+     *
+     * @throws IllegalStateException if the page is new and the cache is full
+     */
+    void put(PageId pid, Page pg);
+
+    /**
+     * Adds a page that was read ahead of its use. Like {@link #put} of a new
+     * page, except that the first {@link #get} of the page is the access
+     * that brings it in rather than a second access.
+     *
+     * @throws IllegalStateException if the page is new and the cache is full
+     */
+    void prefetch(PageId pid, Page pg);
+
+    /**
+     * Drops a page from the cache, e.g. because it was discarded. Unlike an
+     * eviction, this leaves no trace in the policy's history.
+     *
+     * @return the page, or null if it was not in the cache
+     */
+    Page remove(PageId pid);
+
+    /**
+     * Picks a page to evict, among the pages for which canEvict holds, and
+     * removes it from the cache. Pages the policy would rather evict but
+     * canEvict rejects are skipped one by one, so eviction slows down as the
+     * pool fills with pinned or dirty pages.
+     *
+     * @return the evicted page, or null if no page can be evicted
+     */
+    Page evictPage(Predicate<Page> canEvict);
+
+    /** @return the number of pages in the cache */
+    int size();
+
+    /** @return the number of pages the cache can hold */
+    int getCapacity();
+
+    /**
+     * Changes the number of pages the cache can hold, keeping its pages and,
+     * as far as the policy allows, their order. The buffer pool evicts pages
+     * first when it shrinks a cache.
+     *
+     * @throws IllegalArgumentException if the cache holds more pages than
+     *         capacity
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * @return the ids of the pages in the cache, as a copy, roughly in the
+     *         order the policy would evict them: coldest first
+     */
+    List<PageId> pageIds();
+}
@@ -0,0 +1,187 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The {@link ReplacementPolicy#CLOCK} cache: an approximation of LRU that
+ * keeps the pages in a ring of frames, each with a reference bit. An access
+ * only sets the page's bit. To evict, a hand sweeps the ring, clearing set
+ * bits, and evicts the first page whose bit was already clear, so a page
+ * gets a second chance for every access since the hand last passed it.
+ * <p>
+ * An access costs a lookup and a store, and the hand clears at most one bit
+ * per frame before it finds a victim, so eviction is amortized O(1) as long
+ * as canEvict takes most pages; the hand also steps over every pinned or
+ * unevictable dirty page.
+ *
+ * @Threadsafe
+ */
+class ClockCache implements Cache {
+
+    private int capacity;
+    private Page[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    // free frames, used as a stack
+    private int[] free;
+    private int numFree;
+    private int hand;
+
+    ClockCache(int capacity) {
+        this.capacity = capacity;
+        this.frames = new Page[capacity];
+        this.referenced = new boolean[capacity];
+        this.frameOf = new HashMap<>(capacity * 4 / 3 + 1);
+        this.free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        this.numFree = capacity;
+    }
+
+    @Override
+    public synchronized boolean containsKey(PageId pid) {
+        return frameOf.containsKey(pid);
+    }
+
+    @Override
+    public synchronized Page get(PageId pid) {
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            return null;
+        }
+        referenced[f] = true;
+        return frames[f];
+    }
+
+    @Override
+    public synchronized Page peek(PageId pid) {
+        Integer f = frameOf.get(pid);
+        return f == null ? null : frames[f];
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        Integer f = frameOf.get(pid);
+        if (f == null) {
+            if (numFree == 0) {
+                throw new IllegalStateException("cache full");
+            }
+            f = free[--numFree];
+            frameOf.put(pid, f);
+        }
+        frames[f] = pg;
+        referenced[f] = true;
+    }
+
+    /**
+     * The page comes in with its reference bit clear, so the first get sets
+     * it.
+     */
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        boolean present = frameOf.containsKey(pid);
+        put(pid, pg);
+        if (!present) {
+            referenced[frameOf.get(pid)] = false;
+        }
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        Integer f = frameOf.remove(pid);
+        if (f == null) {
+            return null;
+        }
+        return clear(f);
+    }
+
+    private Page clear(int f) {
+        Page pg = frames[f];
+        frames[f] = null;
+        referenced[f] = false;
+        free[numFree++] = f;
+        return pg;
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        // two sweeps: one to clear the bits, one to find a page whose bit is
+        // clear; pages canEvict rules out keep their bits
+        for (int step = 0; step < 2 * capacity; step++) {
+            int f = hand;
+            hand = (hand + 1) % capacity;
+            Page pg = frames[f];
+            if (pg == null || !canEvict.test(pg)) {
+                continue;
+            }
+            if (referenced[f]) {
+                referenced[f] = false;
+            } else {
+                frameOf.remove(pg.getId());
+                return clear(f);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return frameOf.size();
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The pages are packed into the first frames in the order the hand meets
+     * them, keeping their reference bits.
+     */
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (frameOf.size() > capacity) {
+            throw new IllegalArgumentException("cache holds more than " + capacity + " pages");
+        }
+        Page[] newFrames = new Page[capacity];
+        boolean[] newReferenced = new boolean[capacity];
+        int n = 0;
+        for (int step = 0; step < this.capacity; step++) {
+            int f = (hand + step) % this.capacity;
+            if (frames[f] != null) {
+                newFrames[n] = frames[f];
+                newReferenced[n] = referenced[f];
+                frameOf.put(frames[f].getId(), n);
+                n++;
+            }
+        }
+        this.frames = newFrames;
+        this.referenced = newReferenced;
+        this.free = new int[capacity];
+        this.numFree = 0;
+        for (int i = capacity - 1; i >= n; i--) {
+            free[numFree++] = i;
+        }
+        this.hand = 0;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized List<PageId> pageIds() {
+        // the hand takes the pages whose bit is clear first
+        List<PageId> ids = new ArrayList<>(frameOf.size());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int step = 0; step < capacity; step++) {
+                int f = (hand + step) % capacity;
+                if (frames[f] != null && referenced[f] == (pass == 1)) {
+                    ids.add(frames[f].getId());
+                }
+            }
+        }
+        return ids;
+    }
+}
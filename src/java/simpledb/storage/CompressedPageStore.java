@@ -0,0 +1,309 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * CompressedPageStore keeps the pages of a compressed HeapFile. Each page is
+ * compressed on its own with {@link Lz4BlockCodec}, so a page can still be
+ * read without touching the rest of the file, and the buffer pool only ever
+ * sees the decompressed page. Before it is compressed, the bytes of a page
+ * are regrouped by {@link #shuffle}, which turns the high bytes of small ints
+ * into runs the codec compresses well.
+ * <p>
+ * The data file starts with a header ({@link #MAGIC} and the page size)
+ * followed by the compressed blocks. Where each page's block lies is recorded
+ * in an index in a sidecar file (the data file's name with ".idx" appended),
+ * one entry of {@link #ENTRY_SIZE} bytes per page: the block's offset in the
+ * data file, the length of the compressed page and the room reserved for the
+ * block. A page that does not compress is stored as is, with a length of a
+ * whole page.
+ * <p>
+ * A page that still fits in its block when it is written again is
+ * overwritten in place. Otherwise it moves to a new block at the end of the
+ * file and its old block is lost, so a table that is updated a lot slowly
+ * grows; compressed tables are meant for cold data, and {@link #compress}
+ * rewrites a table without the holes.
+ * <p>
+ * When a page moves, its new block is forced to disk before its index entry
+ * is written, so a crash while a page moves leaves the index pointing at the
+ * old copy of the page. A page overwritten in place can be torn by a crash
+ * like a page of a plain heap file, and is put back by log recovery.
+ *
+ * @Threadsafe
+ */
+class CompressedPageStore {
+
+    static final String INDEX_SUFFIX = ".idx";
+    static final int MAGIC = 0x5344425A; // "SDBZ"
+    static final int HEADER_SIZE = 8;
+    static final int ENTRY_SIZE = 16;
+    // blocks are allocated in multiples of this, leaving a page some room to grow
+    private static final int BLOCK_ALIGN = 64;
+    private static final int WORD = 4;
+
+    private final File file;
+    private final File indexFile;
+    private FileChannel data;
+    private FileChannel index;
+    private int pageSize;
+    private boolean loaded;
+
+    // the index, by page number
+    private int numPages;
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0];
+    private int[] capacities = new int[0];
+    // where the next new block goes
+    private long dataEnd;
+
+    CompressedPageStore(File file) {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    /** @return the sidecar file the index is stored in */
+    File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Opens the files and reads the index, the first time the store is used.
+     */
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        pageSize = BufferPool.getPageSize();
+        data = new RandomAccessFile(file, "rw").getChannel();
+        index = new RandomAccessFile(indexFile, "rw").getChannel();
+
+        if (data.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(pageSize).flip();
+            writeFully(data, header, 0);
+            index.truncate(0);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(data, header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a compressed heap file");
+            }
+            if (header.getInt(4) != pageSize) {
+                throw new IOException(file + " has pages of " + header.getInt(4)
+                        + " bytes, not " + pageSize);
+            }
+        }
+        long size = data.size();
+        dataEnd = size;
+
+        int n = (int) (index.size() / ENTRY_SIZE);
+        ByteBuffer entries = ByteBuffer.allocate(n * ENTRY_SIZE);
+        readFully(index, entries, 0);
+        entries.flip();
+        grow(n);
+        for (int i = 0; i < n; i++) {
+            offsets[i] = entries.getLong();
+            lengths[i] = entries.getInt();
+            capacities[i] = entries.getInt();
+            if (offsets[i] < HEADER_SIZE || offsets[i] + lengths[i] > size
+                    || lengths[i] > capacities[i] || lengths[i] > pageSize) {
+                throw new IOException("damaged index entry for page " + i + " of " + file);
+            }
+            // the last block may not have been written up to its capacity
+            dataEnd = Math.max(dataEnd, offsets[i] + capacities[i]);
+        }
+        numPages = n;
+        loaded = true;
+    }
+
+    private void grow(int n) {
+        if (n > offsets.length) {
+            int len = Math.max(n, offsets.length * 2);
+            offsets = Arrays.copyOf(offsets, len);
+            lengths = Arrays.copyOf(lengths, len);
+            capacities = Arrays.copyOf(capacities, len);
+        }
+    }
+
+    /**
+     * @return the number of pages in the store
+     */
+    synchronized int numPages() throws IOException {
+        load();
+        return numPages;
+    }
+
+    /**
+     * Reads and decompresses page pgNo.
+     *
+     * @return the page, as laid out by its HeapPageFormat
+     */
+    byte[] read(int pgNo) throws IOException {
+        byte[] block;
+        // the block is read under the lock: read-ahead reads pages the buffer
+        // pool may be writing out, and writeBlock overwrites blocks in place
+        synchronized (this) {
+            load();
+            if (pgNo < 0 || pgNo >= numPages) {
+                throw new IOException("page " + pgNo + " not found in " + file);
+            }
+            block = new byte[lengths[pgNo]];
+            readFully(data, ByteBuffer.wrap(block), offsets[pgNo]);
+        }
+        int length = block.length;
+        if (length == pageSize) {
+            return block;
+        }
+        byte[] shuffled = new byte[pageSize];
+        Lz4BlockCodec.decompress(block, 0, length, shuffled, pageSize);
+        return unshuffle(shuffled);
+    }
+
+    /**
+     * Regroups the bytes of a page by their position in a 4-byte word: byte 0
+     * of every word, then byte 1, and so on. The values of a page are mostly
+     * ints, whose high bytes are often the same, and grouped together they
+     * make long runs for the codec.
+     */
+    static byte[] shuffle(byte[] page) {
+        byte[] out = new byte[page.length];
+        int words = page.length / WORD;
+        for (int i = 0; i < words; i++) {
+            for (int b = 0; b < WORD; b++) {
+                out[b * words + i] = page[i * WORD + b];
+            }
+        }
+        // a tail shorter than a word stays where it is
+        System.arraycopy(page, words * WORD, out, words * WORD, page.length - words * WORD);
+        return out;
+    }
+
+    static byte[] unshuffle(byte[] shuffled) {
+        byte[] out = new byte[shuffled.length];
+        int words = shuffled.length / WORD;
+        for (int i = 0; i < words; i++) {
+            for (int b = 0; b < WORD; b++) {
+                out[i * WORD + b] = shuffled[b * words + i];
+            }
+        }
+        System.arraycopy(shuffled, words * WORD, out, words * WORD, shuffled.length - words * WORD);
+        return out;
+    }
+
+    /**
+     * Compresses and writes page pgNo, which is either an existing page or
+     * the page right after the last one.
+     */
+    void write(int pgNo, byte[] page) throws IOException {
+        byte[] block = new byte[Lz4BlockCodec.maxCompressedLength(page.length)];
+        int length = Lz4BlockCodec.compress(shuffle(page), 0, page.length, block);
+        if (length >= page.length) {
+            block = page;
+            length = page.length;
+        }
+        writeBlock(pgNo, block, length);
+    }
+
+    private synchronized void writeBlock(int pgNo, byte[] block, int length) throws IOException {
+        load();
+        if (length > pageSize) {
+            throw new IOException("page larger than " + pageSize + " bytes");
+        }
+        if (pgNo < 0 || pgNo > numPages) {
+            throw new IOException("page " + pgNo + " is past the end of " + file);
+        }
+
+        boolean inPlace = pgNo < numPages && length <= capacities[pgNo];
+        long offset = inPlace ? offsets[pgNo] : dataEnd;
+        int capacity = inPlace ? capacities[pgNo]
+                : Math.min((length + BLOCK_ALIGN - 1) / BLOCK_ALIGN * BLOCK_ALIGN, pageSize);
+        writeFully(data, ByteBuffer.wrap(block, 0, length), offset);
+        if (!inPlace) {
+            dataEnd = offset + capacity;
+            // the entry must not point at a block that may not be on disk
+            data.force(false);
+        }
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offset).putInt(length).putInt(capacity).flip();
+        writeFully(index, entry, (long) pgNo * ENTRY_SIZE);
+        grow(pgNo + 1);
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * Forces the blocks, then the index, to disk.
+     */
+    void force() throws IOException {
+        FileChannel d, i;
+        synchronized (this) {
+            d = data;
+            i = index;
+        }
+        // nothing was ever written if the store was never opened
+        if (d != null) {
+            d.force(true);
+            i.force(true);
+        }
+    }
+
+    /**
+     * Writes a compressed copy of the uncompressed heap file src to dst,
+     * replacing dst and its index if they exist.
+     */
+    static void compress(File src, File dst) throws IOException {
+        if (!dst.delete() && dst.exists()) {
+            throw new IOException("cannot replace " + dst);
+        }
+        File idx = new File(dst.getPath() + INDEX_SUFFIX);
+        if (!idx.delete() && idx.exists()) {
+            throw new IOException("cannot replace " + idx);
+        }
+        CompressedPageStore store = new CompressedPageStore(dst);
+        int pageSize = BufferPool.getPageSize();
+        byte[] page = new byte[pageSize];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(src)))) {
+            long n = src.length() / pageSize;
+            for (int pgNo = 0; pgNo < n; pgNo++) {
+                in.readFully(page);
+                store.write(pgNo, page);
+            }
+        }
+        store.force();
+        store.close();
+    }
+
+    /**
+     * Closes the files; the store opens them again when it is next used.
+     */
+    synchronized void close() throws IOException {
+        if (loaded) {
+            data.close();
+            index.close();
+            data = null;
+            index = null;
+            loaded = false;
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long offset) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position() - start);
+        }
+    }
+}
@@ -33,6 +33,16 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Force all pages written by {@link #writePage} to stable storage.
+     * writePage does not sync the file itself, so callers that need a
+     * write to be durable (commit, checkpoint) must call this afterwards.
+     *
+     * @throws IOException if the force fails
+     */
+    default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -48,6 +58,34 @@ public interface DbFile {
     List<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples taken from tuples on behalf of transaction.
+     * Tuples are consumed until the iterator runs out or maxPages pages have
+     * been modified, so a caller can insert any number of tuples by calling
+     * this until tuples is empty, flushing the returned pages in between.
+     * <p>
+     * The default implementation inserts the tuples one by one with
+     * {@link #insertTuple}.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @param maxPages The maximum number of pages to modify in this call
+     * @return The pages that were modified, each listed once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    default List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples, int maxPages)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> modified = new LinkedHashMap<>();
+        while (tuples.hasNext() && modified.size() < maxPages) {
+            for (Page pg : insertTuple(tid, tuples.next())) {
+                modified.put(pg.getId(), pg);
+            }
+        }
+        return new ArrayList<>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -0,0 +1,93 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An off-heap arena of page frames for a BufferPool that keeps the bytes of
+ * its pages outside the Java heap (see {@link BufferPool#OFF_HEAP_PROPERTY}).
+ * Frames are fixed-size slices of direct ByteBuffers, carved a chunk at a time
+ * as the pool fills up, so an empty pool costs next to nothing. Memory is
+ * never given back to the system: a frame released by one page is handed to
+ * the next.
+ *
+ * @Threadsafe
+ */
+class FrameArena {
+
+    /** Frames carved out of each direct buffer. */
+    private static final int FRAMES_PER_CHUNK = 256;
+
+    private final int frameSize;
+    // the frames carved so far, by frame number
+    private ByteBuffer[] frames;
+    private int numCarved;
+    // stack of released frames
+    private int[] free;
+    private int numFree;
+
+    /**
+     * @param numFrames the number of frames of the arena
+     * @param frameSize the size of a frame, in bytes
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.frames = new ByteBuffer[numFrames];
+        this.free = new int[numFrames];
+    }
+
+    /**
+     * Adds frames to the arena, up to numFrames frames in all. An arena never
+     * shrinks.
+     */
+    synchronized void grow(int numFrames) {
+        if (numFrames > frames.length) {
+            frames = Arrays.copyOf(frames, numFrames);
+            free = Arrays.copyOf(free, numFrames);
+        }
+    }
+
+    /** @return the size of a frame, in bytes */
+    int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Takes a frame of the arena.
+     *
+     * @return the number of the frame, -1 if every frame is taken
+     */
+    synchronized int allocate() {
+        if (numFree > 0) {
+            return free[--numFree];
+        }
+        if (numCarved == frames.length) {
+            return -1;
+        }
+        if (frames[numCarved] == null) {
+            int n = Math.min(FRAMES_PER_CHUNK, frames.length - numCarved);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * frameSize);
+            for (int i = 0; i < n; i++) {
+                chunk.limit((i + 1) * frameSize);
+                chunk.position(i * frameSize);
+                frames[numCarved + i] = chunk.slice();
+            }
+        }
+        return numCarved++;
+    }
+
+    /** @return the buffer of a frame taken with allocate */
+    synchronized ByteBuffer frame(int frameNo) {
+        return frames[frameNo];
+    }
+
+    /** Gives a frame taken with allocate back to the arena. */
+    synchronized void release(int frameNo) {
+        free[numFree++] = frameNo;
+    }
+
+    /** @return the number of frames that are not taken */
+    synchronized int getNumFree() {
+        return numFree + frames.length - numCarved;
+    }
+}
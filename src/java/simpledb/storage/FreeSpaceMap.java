@@ -0,0 +1,140 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap keeps one bit per page of a HeapFile that says whether the page
+ * may have a free slot, so that inserts can go straight to such a page instead
+ * of walking the file from page 0.
+ * <p>
+ * The map is only a hint. A page marked free may turn out to be full (the
+ * caller then marks it full and asks again), and a page marked full may have
+ * had tuples deleted behind the map's back, which only costs some space.
+ * Pages the map has not seen yet, e.g. pages written by HeapFileEncoder, count
+ * as free until an insert finds out otherwise.
+ * <p>
+ * The map lives in a sidecar file next to the heap file (the same name with
+ * ".fsm" appended) and is written there by {@link #flush}, which HeapFile
+ * calls whenever it forces its data to disk, as every commit that wrote to
+ * the file does. The sidecar holds the number of
+ * pages it covers followed by the bitmap.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    static final String SUFFIX = ".fsm";
+
+    private final File file;
+    private BitSet free;
+    private int numPages;
+    private boolean dirty;
+    private boolean loaded;
+
+    FreeSpaceMap(File heapFile) {
+        this.file = new File(heapFile.getPath() + SUFFIX);
+    }
+
+    /** @return the sidecar file the map is stored in */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a page that may have a free slot, or -1 if no page among the
+     * first numPages pages has one.
+     *
+     * @param numPages the current number of pages in the heap file
+     */
+    synchronized int findFreePage(int numPages) {
+        if (!loaded) {
+            load();
+        }
+        if (this.numPages > numPages) {
+            // the map belongs to an older, longer version of the file
+            free.clear();
+            this.numPages = 0;
+        }
+        cover(numPages);
+        int pgNo = free.nextSetBit(0);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether page pgNo has a free slot.
+     */
+    synchronized void setFree(int pgNo, boolean hasFreeSlot) {
+        cover(pgNo + 1);
+        if (free.get(pgNo) != hasFreeSlot) {
+            free.set(pgNo, hasFreeSlot);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its sidecar file if it changed since the last flush.
+     * The file is replaced atomically where the file system can, so a crash
+     * leaves either the old or the new map behind; elsewhere it is replaced
+     * with a plain move, and a damaged map is rebuilt (see {@link #load}).
+     */
+    synchronized void flush() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            byte[] bits = free.toByteArray();
+            dos.writeInt(numPages);
+            dos.writeInt(bits.length);
+            dos.write(bits);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Makes sure the map covers the first n pages; pages it did not cover
+     * before count as free.
+     */
+    private void cover(int n) {
+        if (!loaded) {
+            load();
+        }
+        if (n > numPages) {
+            free.set(numPages, n);
+            numPages = n;
+            dirty = true;
+        }
+    }
+
+    private void load() {
+        loaded = true;
+        free = new BitSet();
+        numPages = 0;
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int n = dis.readInt();
+            byte[] bits = new byte[dis.readInt()];
+            dis.readFully(bits);
+            free = BitSet.valueOf(bits);
+            numPages = n;
+        } catch (IOException e) {
+            // a damaged map is rebuilt by inserts, starting with every page free
+            free = new BitSet();
+            numPages = 0;
+        }
+    }
+}
@@ -4,11 +4,13 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
-import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -25,6 +27,22 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc td;
+    private final HeapPageFormat format;
+    // one long-lived channel per file, opened on first use. All page I/O goes
+    // through positional reads/writes on it, so it is safe to share between threads.
+    private FileChannel channel;
+    // pages are read out of a memory mapping of the file instead of the channel
+    private final boolean memoryMapped;
+    private MappedFile mappedFile;
+    // pages that may have free slots, persisted next to the file
+    private final FreeSpaceMap freeSpace;
+    // page data read by a readPages call in progress on this thread, waiting
+    // to be turned into pages by its calls to readPage. Other threads, and
+    // later reads, never see it.
+    private final ThreadLocal<Map<Integer, ByteBuffer>> readAheadData = new ThreadLocal<>();
+    // the pages of a compressed file, null if the file holds plain pages
+    private final CompressedPageStore compressedStore;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -33,9 +51,80 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            if true, pages are read from a memory mapping of f rather
+     *            than with read calls. Intended for read-mostly tables.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        this(f, td, HeapPageFormat.FIXED, memoryMapped);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages of f.
+     * @param memoryMapped
+     *            if true, pages are read from a memory mapping of f rather
+     *            than with read calls. Intended for read-mostly tables.
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat format, boolean memoryMapped) {
+        this(f, td, format, memoryMapped, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param format
+     *            the layout of the pages of f.
+     * @param memoryMapped
+     *            if true, pages are read from a memory mapping of f rather
+     *            than with read calls. Intended for read-mostly tables.
+     * @param compressed
+     *            if true, f holds compressed pages, see
+     *            {@link #compressFile}. Intended for cold tables; cannot be
+     *            combined with memoryMapped.
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat format, boolean memoryMapped, boolean compressed) {
         // some code goes here
+        if (memoryMapped && compressed) {
+            throw new IllegalArgumentException("a compressed file cannot be memory mapped");
+        }
         this.file = f;
         this.td = td;
+        this.format = format;
+        this.memoryMapped = memoryMapped;
+        this.freeSpace = new FreeSpaceMap(f);
+        this.compressedStore = compressed ? new CompressedPageStore(f) : null;
+    }
+
+    /**
+     * Writes a compressed copy of the heap file src, which holds plain pages,
+     * to dst, for a HeapFile constructed with compressed set. Each page is
+     * compressed on its own, and an index of where each page lies is written
+     * next to dst (its name with ".idx" appended), so that a page is still
+     * read with a single read. Any existing dst is replaced.
+     * <p>
+     * Compressing the copy of a compressed file (whose pages were written back
+     * after updates) also gets rid of the room left behind by pages that grew.
+     */
+    public static void compressFile(File src, File dst) throws IOException {
+        CompressedPageStore.compress(src, dst);
     }
 
     /**
@@ -72,40 +161,218 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel backing this HeapFile, opening it on first use.
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        return channel;
+    }
+
+    /**
+     * @return the layout of the pages of this file.
+     */
+    public HeapPageFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return true if pages of this file are read from a memory mapping.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed.
+     */
+    public boolean isCompressed() {
+        return compressedStore != null;
+    }
+
+    private synchronized MappedFile getMappedFile() throws IOException {
+        if (mappedFile == null) {
+            mappedFile = new MappedFile(getChannel());
+        }
+        return mappedFile;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         int pgNo = pid.getPageNumber();
         int tableId = pid.getTableId();
-        final int pgSize = Database.getBufferPool().getPageSize();
-        byte[] rawPageData = HeapPage.createEmptyPageData();
-        //open file
+        if (pgNo < 0 || pgNo >= numPages()) {
+            throw new IllegalArgumentException("page not found");
+        }
+        if (compressedStore != null) {
+            try {
+                return format.newPage(new HeapPageId(tableId, pgNo), ByteBuffer.wrap(compressedStore.read(pgNo)));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("page not found");
+            }
+        }
+        final int pgSize = BufferPool.getPageSize();
+        Map<Integer, ByteBuffer> staged = readAheadData.get();
+        ByteBuffer stagedData = staged != null ? staged.remove(pgNo) : null;
+        if (stagedData != null) {
+            try {
+                return format.newPage(new HeapPageId(tableId, pgNo), stagedData);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("page not found");
+            }
+        }
+        if (memoryMapped) {
+            try {
+                ByteBuffer data = getMappedFile().slice((long) pgNo * pgSize, pgSize);
+                return format.newPage(new HeapPageId(tableId, pgNo), data);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("page not found");
+            }
+        }
+        byte[] rawPageData = new byte[pgSize];
         try {
-            FileInputStream in = new FileInputStream(file);
-            //find page pos
-            in.skip(pgNo * pgSize);
-            //read page
-            in.read(rawPageData);
-            return new HeapPage(new HeapPageId(tableId, pgNo), rawPageData);
-        } catch (FileNotFoundException e) {
-            throw new IllegalArgumentException("file not found");
+            ByteBuffer buf = ByteBuffer.wrap(rawPageData);
+            long offset = (long) pgNo * pgSize;
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    throw new IllegalArgumentException("page not found");
+                }
+            }
+            return format.newPage(new HeapPageId(tableId, pgNo), ByteBuffer.wrap(rawPageData));
         } catch (IOException e) {
             throw new IllegalArgumentException("page not found");
         }
     }
 
+    /**
+     * Reads count consecutive pages, starting with page firstPgNo, with a
+     * single read. Pages past the end of the file are left out. Used to read
+     * ahead of sequential scans.
+     * <p>
+     * The pages are still built by {@link #readPage}: the data read is staged
+     * in readAheadData for this call only, where readPage picks it up instead
+     * of reading the page again. No other read sees it, so a page written
+     * after the read cannot be handed out stale by a later readPage; keeping
+     * the pages this call returns from going stale in the pool is up to the
+     * buffer pool.
+     */
+    protected List<Page> readPages(int firstPgNo, int count) throws IOException {
+        count = Math.min(count, numPages() - firstPgNo);
+        List<Page> pages = new ArrayList<>(Math.max(count, 0));
+        if (count <= 0) {
+            return pages;
+        }
+
+        // nothing to batch when pages are read out of the mapping anyway, and
+        // the blocks of a compressed file need not be next to each other
+        if (!memoryMapped && compressedStore == null) {
+            final int pgSize = BufferPool.getPageSize();
+            ByteBuffer buf = ByteBuffer.allocate(count * pgSize);
+            long offset = (long) firstPgNo * pgSize;
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    break;
+                }
+            }
+            int numRead = buf.position() / pgSize;
+            Map<Integer, ByteBuffer> staged = new HashMap<>();
+            for (int i = 0; i < numRead; i++) {
+                ByteBuffer data = buf.duplicate();
+                data.limit((i + 1) * pgSize);
+                data.position(i * pgSize);
+                staged.put(firstPgNo + i, data.slice());
+            }
+            readAheadData.set(staged);
+        }
+
+        try {
+            for (int pgNo = firstPgNo; pgNo < firstPgNo + count; pgNo++) {
+                pages.add(readPage(new HeapPageId(getId(), pgNo)));
+            }
+        } finally {
+            readAheadData.remove();
+        }
+        return pages;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         PageId pid = page.getId();
         int pgNo = pid.getPageNumber();
+        if (compressedStore != null) {
+            compressedStore.write(pgNo, page.getPageData());
+            return;
+        }
 
-        final int pageSize = Database.getBufferPool().getPageSize();
-        byte[] pgData = page.getPageData();
-        RandomAccessFile dbfile = new RandomAccessFile(file, "rws");
-        dbfile.skipBytes(pgNo * pageSize);
-        dbfile.write(pgData);
+        final int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData());
+        long offset = (long) pgNo * pageSize;
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * Writes consecutive pages of this file, given in page number order,
+     * with a single write. Used by the buffer pool's page cleaner to
+     * coalesce the writes of neighbouring dirty pages.
+     *
+     * @param pages the pages to write
+     * @param data the data of each page, as returned by getPageData
+     */
+    void writePages(List<Page> pages, List<byte[]> data) throws IOException {
+        if (compressedStore != null || pages.size() == 1) {
+            for (int i = 0; i < pages.size(); i++) {
+                Page pg = pages.get(i);
+                if (compressedStore != null) {
+                    compressedStore.write(pg.getId().getPageNumber(), data.get(i));
+                } else {
+                    writePage(pg);
+                }
+            }
+            return;
+        }
+
+        final int pageSize = BufferPool.getPageSize();
+        int firstPgNo = pages.get(0).getId().getPageNumber();
+        ByteBuffer buf = ByteBuffer.allocate(pages.size() * pageSize);
+        for (int i = 0; i < pages.size(); i++) {
+            if (pages.get(i).getId().getPageNumber() != firstPgNo + i) {
+                throw new IllegalArgumentException("writePages: pages are not consecutive");
+            }
+            buf.put(data.get(i));
+        }
+        buf.flip();
+        long offset = (long) firstPgNo * pageSize;
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        freeSpace.flush();
+        if (compressedStore != null) {
+            compressedStore.force();
+            return;
+        }
+        FileChannel ch;
+        synchronized (this) {
+            ch = channel;
+        }
+        // nothing was ever written through this file if the channel was never opened
+        if (ch != null && ch.isOpen()) {
+            ch.force(true);
+        }
     }
 
     /**
@@ -114,8 +381,14 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
         // fileSize / pgSize
-        int fileByteSize = (int) file.length();
-        return fileByteSize / Database.getBufferPool().getPageSize();
+        if (compressedStore != null) {
+            try {
+                return compressedStore.numPages();
+            } catch (IOException e) {
+                throw new IllegalStateException("cannot read the page index of " + file, e);
+            }
+        }
+        return (int) (file.length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -124,29 +397,235 @@ public class HeapFile implements DbFile {
         // some code goes here
         // not necessary for lab1
         ArrayList<Page> affectedPage = new ArrayList<>(1);
-        int numPages = numPages();
 
-        for (int pgNo = 0; pgNo < numPages + 1; pgNo++) {
-            HeapPageId pid = new HeapPageId(getId(), pgNo);
-            HeapPage pg;
-            if (pgNo < numPages) {
-                pg = (HeapPage) Database.getBufferPool().getPage(tid,pid,Permissions.READ_WRITE);
-             } else {
-                pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+        // try the pages the free-space map points at; it is only a hint, so a
+        // page may turn out to be full, in which case the map learns about it
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            int pgNo;
+            while ((pgNo = freeSpace.findFreePage(numPages())) >= 0) {
+                HeapPageId pid = new HeapPageId(getId(), pgNo);
+                boolean locked = bp.holdsLock(tid, pid);
+                if (locksRecords()) {
+                    HeapPage pg = insertLockingRecord(tid, pid, t);
+                    if (pg != null) {
+                        affectedPage.add(pg);
+                        return affectedPage;
+                    }
+                } else {
+                    HeapPage pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+                    if (pg.hasRoomFor(t)) {
+                        pg.insertTuple(t);
+                        freeSpace.setFree(pgNo, pg.getNumEmptySlots() > 0);
+                        affectedPage.add(pg);
+                        return affectedPage;
+                    }
+                }
+                freeSpace.setFree(pgNo, false);
+                // the page was only looked at, so other transactions need not wait for it
+                if (!locked) {
+                    bp.unsafeReleasePage(tid, pid);
+                }
             }
 
-            if (pg.getNumEmptySlots() > 0) {
-                pg.insertTuple(t);
+            // every page is full, add an empty one to the end of the file and
+            // insert into it through the buffer pool, like into any other page
+            synchronized (this) {
+                pgNo = numPages();
+                if (!newEmptyPage(pgNo).hasRoomFor(t)) {
+                    throw new DbException("HeapFile: InsertTuple: Tuple can not be added");
+                }
+                appendEmptyPages(1);
+                freeSpace.setFree(pgNo, true);
+            }
+        }
+    }
 
-                if (pgNo < numPages) {
-                    affectedPage.add(pg);
-                } else {
-                    writePage(pg);
+    /**
+     * Records of pages of fixed slots stay in their slots, so they are
+     * written under locks on single records, and committed and undone one at
+     * a time (see {@link BufferPool#lockRecord}). Records of slotted pages
+     * move when their page is compacted, so writers lock the whole page.
+     */
+    private boolean locksRecords() {
+        return format.isFixedWidth();
+    }
+
+    /**
+     * Inserts a tuple into a page under a lock on its new record, if the page
+     * has room for it. The page is marked dirty before it is unpinned, so that
+     * it is not evicted in between.
+     * <p>
+     * Nobody else can know the record yet, so its lock is free, but taking it
+     * may escalate the transaction's locks and fail; the insert is then taken
+     * back, since the page was not marked dirty for the transaction to undo.
+     *
+     * @return the page, or null if it had no room for the tuple
+     */
+    private HeapPage insertLockingRecord(TransactionId tid, HeapPageId pid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        HeapPage pg = (HeapPage) bp.pinPageForRecords(tid, pid, Permissions.READ_WRITE);
+        try {
+            synchronized (pg) {
+                if (!pg.hasRoomFor(t, tid)) {
+                    return null;
                 }
-                return affectedPage;
+                pg.insertTuple(t, tid);
+                freeSpace.setFree(pid.getPageNumber(), pg.getNumEmptySlots() > 0);
             }
+            try {
+                bp.lockRecord(tid, t.getRecordId(), Permissions.READ_WRITE);
+            } catch (TransactionAbortedException e) {
+                synchronized (pg) {
+                    pg.deleteTuple(t);
+                }
+                throw e;
+            }
+            bp.markDirty(tid, pg);
+            return pg;
+        } finally {
+            bp.unpinPage(pid);
         }
-        throw new DbException("HeapFile: InsertTuple: Tuple can not be added");
+    }
+
+    private HeapPage newEmptyPage(int pgNo) throws IOException {
+        return format.newPage(new HeapPageId(getId(), pgNo), ByteBuffer.wrap(format.createEmptyPageData()));
+    }
+
+    /**
+     * Inserts a batch of tuples. Pages the free-space map points at are
+     * filled first, a whole page per buffer pool lookup. The remaining tuples
+     * are inserted in append mode: they go to fresh pages at the end of the
+     * file, which are filled in memory and returned for the caller (the buffer
+     * pool) to keep as dirty pages. The fresh pages are reserved by extending
+     * the file with empty pages in a single write, so a batch costs one write
+     * however many tuples it holds.
+     * <p>
+     * A tuple is only taken from tuples once it is known to fit on the page
+     * being filled, except when records vary in size: a tuple that turns out
+     * not to fit then moves on to the next page, which may make the batch one
+     * page longer than maxPages.
+     * <p>
+     * Fresh pages are locked exclusively for tid before the file is extended
+     * and the free-space map points at them, since the buffer pool installs
+     * the copies filled here over whatever it holds for those pages: another
+     * transaction must not insert into one of them first.
+     * <p>
+     * If the transaction aborts, the reserved pages stay behind empty.
+     *
+     * @see DbFile#insertTuples
+     */
+    public List<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples, int maxPages)
+            throws DbException, IOException, TransactionAbortedException {
+        List<Page> affectedPage = new ArrayList<>();
+        BufferPool bp = Database.getBufferPool();
+        // a tuple taken from tuples that did not fit on the page it was meant for
+        Tuple carry = null;
+        int pgNo;
+        while ((carry != null || tuples.hasNext()) && affectedPage.size() < maxPages
+                && (pgNo = freeSpace.findFreePage(numPages())) >= 0) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean locked = bp.holdsLock(tid, pid);
+            HeapPage pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+            Tuple t = carry != null ? carry : tuples.next();
+            if (!pg.hasRoomFor(t)) {
+                carry = t;
+                freeSpace.setFree(pgNo, false);
+                if (!locked) {
+                    bp.unsafeReleasePage(tid, pid);
+                }
+                continue;
+            }
+            pg.insertTuple(t);
+            carry = fill(pg, tuples);
+            freeSpace.setFree(pgNo, carry == null && pg.getNumEmptySlots() > 0);
+            affectedPage.add(pg);
+        }
+
+        if (carry == null && (!tuples.hasNext() || affectedPage.size() >= maxPages)) {
+            return affectedPage;
+        }
+        // lock the page the run should start at before taking the monitor, so
+        // that waiting for the table's intention lock does not happen in it
+        HeapPageId expected = new HeapPageId(getId(), numPages());
+        boolean heldExpected = bp.holdsLock(tid, expected);
+        bp.lockPage(tid, expected, Permissions.READ_WRITE);
+        int firstPgNo;
+        synchronized (this) {
+            firstPgNo = numPages();
+            pgNo = firstPgNo;
+            while (carry != null || (tuples.hasNext() && affectedPage.size() < maxPages)) {
+                bp.lockPage(tid, new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+                HeapPage pg = newEmptyPage(pgNo);
+                Tuple first = carry != null ? carry : tuples.next();
+                if (!pg.hasRoomFor(first)) {
+                    throw new DbException("HeapFile: InsertTuples: Tuple can not be added");
+                }
+                pg.insertTuple(first);
+                carry = affectedPage.size() < maxPages ? fill(pg, tuples) : null;
+                freeSpace.setFree(pgNo, carry == null && pg.getNumEmptySlots() > 0);
+                affectedPage.add(pg);
+                pgNo++;
+            }
+            appendEmptyPages(pgNo - firstPgNo);
+        }
+        if (!heldExpected && expected.getPageNumber() < firstPgNo) {
+            // another transaction appended that page meanwhile
+            bp.unsafeReleasePage(tid, expected);
+        }
+        return affectedPage;
+    }
+
+    /**
+     * Inserts tuples from tuples into pg until pg is full or tuples runs out.
+     *
+     * @return the tuple that was taken from tuples but did not fit, or null
+     */
+    private Tuple fill(HeapPage pg, Iterator<Tuple> tuples) throws DbException {
+        while (tuples.hasNext()) {
+            if (format.isFixedWidth() && !pg.hasRoomFor(null)) {
+                // all tuples take the same room, no need to take one to find out
+                return null;
+            }
+            Tuple t = tuples.next();
+            if (!pg.hasRoomFor(t)) {
+                return t;
+            }
+            pg.insertTuple(t);
+        }
+        return null;
+    }
+
+    /**
+     * Extends the file by count empty pages with one write (a write per page
+     * for a compressed file).
+     *
+     * @return the number of the first new page
+     */
+    private synchronized int appendEmptyPages(int count) throws IOException {
+        final int pageSize = BufferPool.getPageSize();
+        int firstPgNo = numPages();
+        if (compressedStore != null) {
+            // an empty page compresses to a few bytes, there is no big write to save
+            byte[] empty = format.createEmptyPageData();
+            for (int i = 0; i < count; i++) {
+                compressedStore.write(firstPgNo + i, empty);
+            }
+            return firstPgNo;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(count * pageSize);
+        byte[] empty = format.createEmptyPageData();
+        for (int i = 0; i < count; i++) {
+            buf.put(empty);
+        }
+        buf.flip();
+        long offset = (long) firstPgNo * pageSize;
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+        return firstPgNo;
     }
 
     // see DbFile.java for javadocs
@@ -159,42 +638,146 @@ public class HeapFile implements DbFile {
         ArrayList<Page> affectedPage = new ArrayList<>(1);
         if (pid.getTableId() == getId()) {
             int pgNo = pid.getPageNumber();
-            HeapPage pg = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            BufferPool bp = Database.getBufferPool();
+            if (locksRecords()) {
+                bp.lockRecord(tid, rid, Permissions.READ_WRITE);
+                HeapPage pg = (HeapPage) bp.pinPageForRecords(tid, pid, Permissions.READ_WRITE);
+                try {
+                    synchronized (pg) {
+                        pg.deleteTuple(t);
+                        if (tid != null) {
+                            // the delete is undone in place, so the slot must stay free
+                            pg.holdSlot(rid.getTupleNumber(), tid);
+                        }
+                    }
+                    bp.markDirty(tid, pg);
+                } finally {
+                    bp.unpinPage(pid);
+                }
+                freeSpace.setFree(pgNo, true);
+                affectedPage.add(pg);
+                return affectedPage;
+            }
+            HeapPage pg = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
             pg.deleteTuple(t);
+            freeSpace.setFree(pgNo, true);
             affectedPage.add(pg);
             return affectedPage;
         }
         throw new DbException("HeapFile: deleteTuple: tuple.tableid != getId");
     }
 
+    // read-ahead window bounds of a sequential scan, in pages
+    private static final int MIN_READ_AHEAD = 4;
+    private static final int MAX_READ_AHEAD = 64;
+
     private class HeapFileIterator implements DbFileIterator {
         private Integer pgCursor;
         private Iterator<Tuple> tupleIterator;
         private final TransactionId tid;
         private final int tableid;
         private final int numPages;
+        // the predicate tuples must satisfy to be handed out, null for all
+        private final Predicate filter;
+
+        // read-ahead state. The scan counts as sequential while each page it
+        // moves to is the one right after the previous page.
+        private int lastPgNo = -1;
+        private int readAheadWindow = 0; // 0 while not reading ahead
+        private int readAheadEnd = 0;    // pages before this one have been read ahead
+
+        // the private frames of a scan of a table larger than the buffer
+        // pool, so the scan does not evict every other page of the pool
+        private BufferRing ring;
 
-        public  HeapFileIterator(TransactionId tid) {
+        // the page the scan is on, pinned in the pool while the scan is on
+        // it. Pages read through the ring are not pinned.
+        private HeapPageId pinned;
+
+        public  HeapFileIterator(TransactionId tid, Predicate filter) {
             this.pgCursor = null;
             this.tupleIterator = null;
             this.tid = tid;
             this.tableid = getId();
             this.numPages = numPages();
+            this.filter = filter;
         }
 
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            lastPgNo = -1;
+            BufferPool bp = Database.getBufferPool();
+            ring = numPages > bp.getNumPages() && bp.hasEvictableFrame() ? new BufferRing() : null;
             pgCursor=0;
             tupleIterator = getTupleIterator(pgCursor);
         }
 
+        /**
+         * Keeps a window of pages ahead of a sequential scan in the buffer
+         * pool. The window doubles when the scan catches up with pages that
+         * are still being read (I/O is the bottleneck) and halves when pages
+         * that were read ahead got evicted before the scan reached them.
+         * A scan through a ring reads ahead into the ring, up to half of it.
+         */
+        private void readAhead(int pgNo) {
+            BufferPool bp = Database.getBufferPool();
+            int maxWindow = ring != null
+                    ? Math.min(MAX_READ_AHEAD, ring.getNumFrames() / 2)
+                    : Math.min(MAX_READ_AHEAD, bp.getNumPages() / 4);
+            boolean sequential = lastPgNo >= 0 && pgNo == lastPgNo + 1;
+            lastPgNo = pgNo;
+            if (!sequential || maxWindow < MIN_READ_AHEAD) {
+                readAheadWindow = 0;
+                readAheadEnd = 0;
+                return;
+            }
+
+            if (readAheadWindow == 0) {
+                readAheadWindow = MIN_READ_AHEAD;
+                readAheadEnd = pgNo + 1;
+            } else if (pgNo < readAheadEnd) {
+                HeapPageId pid = new HeapPageId(tableid, pgNo);
+                if (bp.isReadingAhead(pid)) {
+                    readAheadWindow = Math.min(readAheadWindow * 2, maxWindow);
+                } else if (!bp.isCached(pid) && (ring == null || !ring.contains(pid))) {
+                    readAheadWindow = Math.max(readAheadWindow / 2, MIN_READ_AHEAD);
+                }
+            }
+            readAheadWindow = Math.min(readAheadWindow, maxWindow);
+
+            // top the window up once the scan is half way through it
+            if (readAheadEnd - pgNo <= readAheadWindow / 2) {
+                int first = Math.max(readAheadEnd, pgNo + 1);
+                int count = Math.min(readAheadWindow, numPages - first);
+                if (count > 0) {
+                    bp.readAhead(HeapFile.this, first, count, ring);
+                    readAheadEnd = first + count;
+                }
+            }
+        }
+
         private Iterator<Tuple> getTupleIterator(Integer pgCursor) throws TransactionAbortedException, DbException {
+            readAhead(pgCursor);
             //get page from Bufferpool
             HeapPageId heapPageId = new HeapPageId(tableid, pgCursor);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid, heapPageId, Permissions.READ_ONLY);
+            HeapPage page;
+            if (ring == null) {
+                page = (HeapPage) Database.getBufferPool().pinPage(this.tid, heapPageId, Permissions.READ_ONLY);
+                unpin();
+                pinned = heapPageId;
+            } else {
+                page = (HeapPage) Database.getBufferPool().getPage(this.tid, heapPageId, Permissions.READ_ONLY, ring);
+            }
                 //get iterator from page
-                return page.iterator();
+                return filter == null ? page.iterator() : page.iterator(filter);
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(pinned);
+                pinned = null;
+            }
         }
 
         @Override
@@ -214,6 +797,7 @@ public class HeapFile implements DbFile {
                 }
             }
 
+            unpin();
             return false;
 
         }
@@ -228,21 +812,33 @@ public class HeapFile implements DbFile {
 
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
+            lastPgNo = -1;
             pgCursor=0;
             tupleIterator = getTupleIterator(pgCursor);
         }
 
         @Override
         public void close() {
+            unpin();
             pgCursor=null;
             tupleIterator = null;
+            ring = null;
         }
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p. Each
+     * page tests p as its format best can (see {@link HeapPage#iterator(Predicate)}),
+     * e.g. a PAX page against the column of the field p looks at.
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return new HeapFileIterator(tid, p);
     }
 
 }
@@ -12,7 +12,8 @@ import java.util.List;
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Pages are {@link HeapPageFormat#FIXED} unless another fixed-width
+ * format is asked for.
  */
 
 public class HeapFileEncoder {
@@ -33,6 +34,17 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(tuples, outFile, npagebytes, numFields, HeapPageFormat.FIXED);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a binary
+   * page file of pages of the given format.
+   *
+   * @see #convert(List, File, int, int)
+   * @param format the format of the pages; must be fixed width
+   */
+  public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields,
+                             HeapPageFormat format) throws IOException {
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -52,7 +64,9 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convert(tempInput, outFile, npagebytes, numFields, ts, ',', format);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -92,12 +106,32 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, HeapPageFormat.FIXED);
+  }
+
+   /** Convert the specified input text file into a binary page file of pages
+    * of the given format: {@link HeapPageFormat#FIXED}, or
+    * {@link HeapPageFormat#PAX}, whose pages hold the same records column by
+    * column behind a version byte (see {@link PaxHeapPage}).
+    *
+    * @see #convert(File, File, int, int, Type[], char)
+    * @param format the format of the pages
+    * @throws IllegalArgumentException if format is not fixed width
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, HeapPageFormat format)
+      throws IOException {
+      if (!format.isFixedWidth()) {
+          throw new IllegalArgumentException("cannot encode " + format + " pages, only fixed-width ones");
+      }
+      boolean pax = format == HeapPageFormat.PAX;
+      int nprefixbytes = pax ? PaxHeapPage.HEADER_OFFSET : 0;
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+      int nrecords = ((npagebytes - nprefixbytes) * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
     //  per record, we need one bit; there are nrecords per page, so we need
     // nrecords bits, i.e., ((nrecords/32)+1) integers.
@@ -202,14 +236,19 @@ public class HeapFileEncoder {
             
             // pad the rest of the page with zeroes
             
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
+            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes + nprefixbytes)); i++)
                 pageStream.writeByte(0);
             
             // write header and body to file
             headerStream.flush();
+            if (pax)
+                os.write(PaxHeapPage.FORMAT_VERSION);
             headerBAOS.writeTo(os);
             pageStream.flush();
-            pageBAOS.writeTo(os);
+            if (pax)
+                os.write(toColumns(pageBAOS.toByteArray(), recordcount, nrecords, typeAr));
+            else
+                pageBAOS.writeTo(os);
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -224,4 +263,26 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Rearranges the records of a page, stored one after the other, column by
+   * column: field 0 of all nrecords slots, then field 1, and so on. Slots
+   * past recordcount stay zero.
+   */
+  private static byte[] toColumns(byte[] rows, int recordcount, int nrecords, Type[] typeAr) {
+      int nrecbytes = 0;
+      for (Type t : typeAr) {
+          nrecbytes += t.getLen();
+      }
+      byte[] columns = new byte[rows.length];
+      int fieldStart = 0;
+      for (Type t : typeAr) {
+          int len = t.getLen();
+          for (int i = 0; i < recordcount; i++) {
+              System.arraycopy(rows, i * nrecbytes + fieldStart, columns, nrecords * fieldStart + i * len, len);
+          }
+          fieldStart += len;
+      }
+      return columns;
+  }
 }
@@ -4,10 +4,12 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -22,11 +24,33 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    // the tuple in each slot; null for a slot whose record has not been
+    // asked for yet, which is then read out of data
     final Tuple[] tuples;
     final int numSlots;
-
+    // the page as it was read; records are decoded from here on demand. It is
+    // on the heap, or in a frame of the buffer pool's off-heap arena while the
+    // page is cached by an off-heap pool (see moveToFrame). Guarded by this.
+    ByteBuffer records;
+    // the arena frame records is in, -1 if it is on the heap
+    private int frameNo = -1;
+    // true while records is a view of the buffer the page was built from,
+    // e.g. a slice of a memory-mapped file, which writing the page back
+    // would change underneath it. Copied when the page is first modified.
+    // Guarded by this.
+    private boolean sharedRecords;
+    // the page of subclasses that keep their own layout; null for pages of
+    // fixed slots, whose bytes are in records
+    final byte[] data;
+    // slots whose record was inserted after the page was read, so that data
+    // does not hold it
+    private final boolean[] inserted;
+    // where each field starts within a record
+    final int[] fieldStart;
+
+    // null while the before image is the page as read, i.e. records
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -45,27 +69,76 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page as laid out on disk,
+     * e.g. a slice of a memory-mapped file. The page is parsed directly out of
+     * the buffer, and records are read out of it until the page is first
+     * modified, when they are copied to the heap; the buffer's position is not
+     * changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer view = data.duplicate();
+        if (view.remaining() >= BufferPool.getPageSize()) {
+            view.limit(view.position() + BufferPool.getPageSize());
+            this.records = view.slice();
+            this.sharedRecords = true;
+        } else {
+            this.records = ByteBuffer.wrap(copyPage(data));
+        }
+        this.data = null;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        ByteBuffer src = records.duplicate();
+        src.position(headerOffset());
+        src.get(header);
+
+        // the records stay in data until they are asked for, see tupleAt
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        inserted = new boolean[numSlots];
+        fieldStart = new int[td.numFields()];
+        for (int j = 1; j < fieldStart.length; j++) {
+            fieldStart[j] = fieldStart[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
+        // the before image is records until setBeforeImage is called
+    }
 
-        setBeforeImage();
+    /**
+     * Constructor for page formats that subclass HeapPage and keep their own
+     * layout (see {@link HeapPageFormat}). The fixed-slot state of this class
+     * is left empty, so subclasses must override every method that uses it.
+     *
+     * @param data the page, which the subclass parses itself
+     */
+    protected HeapPage(HeapPageId id, TupleDesc td, byte[] data) {
+        this.pid = id;
+        this.td = td;
+        this.numSlots = 0;
+        this.header = new byte[0];
+        this.tuples = new Tuple[0];
+        this.records = ByteBuffer.wrap(data);
+        this.data = data;
+        this.inserted = new boolean[0];
+        this.fieldStart = new int[0];
+    }
+
+    /**
+     * Copies a page out of data into a new array of the page size. A short
+     * buffer is a page whose trailing bytes are zero.
+     */
+    static byte[] copyPage(ByteBuffer data) {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = data.duplicate();
+        src.get(page, 0, Math.min(src.remaining(), page.length));
+        return page;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -73,7 +146,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        return (BufferPool.getPageSize() * 8) /
+        return ((BufferPool.getPageSize() - headerOffset()) * 8) /
                 (td.getSize() * 8 +1);
     }
 
@@ -93,8 +166,25 @@ public class HeapPage implements Page {
                  
     }
     
+    /**
+     * @return where the header bitmap starts on the page; formats that put
+     *         bytes of their own in front of it return their number
+     */
+    int headerOffset() {
+        return 0;
+    }
+
+    /**
+     * @return the format of this page; subclasses return their own
+     */
+    HeapPageFormat getFormat() {
+        return HeapPageFormat.FIXED;
+    }
+
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery. The view owns its bytes: records may be an
+        arena frame or a slice of a mapped file, which outlive neither a
+        release of the frame nor a write of the page. */
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
@@ -102,7 +192,12 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null) {
+                synchronized (this) {
+                    return getFormat().newPage(pid, ByteBuffer.wrap(copyPage(records)));
+                }
+            }
+            return getFormat().newPage(pid, ByteBuffer.wrap(oldDataRef));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -116,50 +211,212 @@ public class HeapPage implements Page {
         {
         oldData = getPageData().clone();
         }
+        synchronized (this) {
+            heldSlots = null;
+        }
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Makes the records in the given slots of the before image the ones on
+     * this page, leaving the rest of the before image alone: this commits
+     * changes made under record locks, while other transactions may have
+     * changed other records of the page. Only for pages of fixed slots.
      */
-    public HeapPageId getId() {
-    // some code goes here
-        return pid;
+    void setBeforeImage(Collection<Integer> slots) {
+        checkFixedSlots();
+        synchronized (oldDataLock) {
+            synchronized (this) {
+                byte[] now = getPageData();
+                // copied, since getBeforeImage may be parsing the old array
+                byte[] old = oldData != null ? oldData.clone() : copyPage(records);
+                for (int i : slots) {
+                    int mask = 1 << (i % 8);
+                    int bit = headerOffset() + i / 8;
+                    old[bit] = (byte) ((old[bit] & ~mask) | (now[bit] & mask));
+                    for (int j = 0; j < td.numFields(); j++) {
+                        int pos = fieldOffset(i, j);
+                        System.arraycopy(now, pos, old, pos, td.getFieldType(j).getLen());
+                    }
+                    releaseSlot(i);
+                }
+                oldData = old;
+            }
+        }
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Puts the records in the given slots back as they are in the before
+     * image, leaving the other records of the page alone: this undoes
+     * changes made under record locks. Only for pages of fixed slots.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+    void restoreBeforeImage(Collection<Integer> slots) {
+        checkFixedSlots();
+        synchronized (oldDataLock) {
+            synchronized (this) {
+                ByteBuffer old = oldData != null ? ByteBuffer.wrap(oldData) : records.duplicate();
+                for (int i : slots) {
+                    releaseSlot(i);
+                    if ((old.get(headerOffset() + i / 8) & (1 << (i % 8))) == 0) {
+                        markSlotUsed(i, false);
+                        tuples[i] = null;
+                        firstFreeSlot = Math.min(firstFreeSlot, i);
+                        continue;
+                    }
+                    int[] pos = new int[td.numFields()];
+                    for (int j = 0; j < pos.length; j++) {
+                        pos[j] = fieldOffset(i, j);
+                    }
+                    RecordId rid = new RecordId(pid, i);
+                    Tuple before = new LazyTuple(td, old, pos, rid);
+                    Tuple t = new Tuple(td);
+                    for (int j = 0; j < pos.length; j++) {
+                        t.setField(j, before.getField(j));
+                    }
+                    t.setRecordId(rid);
+                    markSlotUsed(i, true);
+                    tuples[i] = t;
+                    inserted[i] = true;
                 }
             }
-            return null;
         }
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    private void checkFixedSlots() {
+        if (data != null) {
+            throw new UnsupportedOperationException(getFormat() + " pages have no fixed slots");
+        }
+    }
+
+    /**
+     * Keeps the inserts of other transactions out of slot i, emptied by a
+     * delete of tid under a record lock, until the delete commits or is
+     * undone: the delete is undone in place, so the slot must be free then.
+     * Only for pages of fixed slots.
+     */
+    synchronized void holdSlot(int i, TransactionId tid) {
+        if (heldSlots == null) {
+            heldSlots = new HashMap<>();
+        }
+        heldSlots.put(i, tid);
+    }
+
+    private void releaseSlot(int i) {
+        if (heldSlots != null && heldSlots.remove(i) != null) {
+            firstFreeSlot = Math.min(firstFreeSlot, i);
+        }
+    }
+
+    /** @return true if slot i is held by a transaction other than tid */
+    private boolean isHeldFrom(int i, TransactionId tid) {
+        if (heldSlots == null) {
+            return false;
+        }
+        TransactionId holder = heldSlots.get(i);
+        return holder != null && !holder.equals(tid);
+    }
+
+    /**
+     * Moves the bytes of this page to a frame of the buffer pool's off-heap
+     * arena, which must be a buffer of the page size. Only pages of fixed
+     * slots live in frames; subclasses with their own layout stay on the heap.
+     *
+     * @param frame the frame
+     * @param frameNo the number of the frame in the arena
+     * @return true if the page moved to the frame
+     */
+    synchronized boolean moveToFrame(ByteBuffer frame, int frameNo) {
+        if (data != null || this.frameNo >= 0 || frame.capacity() != records.capacity()) {
+            return false;
+        }
+        frame.duplicate().put(records.duplicate());
+        rebaseTuples(frame);
+        this.frameNo = frameNo;
+        sharedRecords = false;
+        return true;
+    }
+
+    /**
+     * Copies records to the heap if they are still in the buffer the page was
+     * built from; called before the page is first modified.
+     */
+    private synchronized void copyRecords() {
+        if (sharedRecords) {
+            rebaseTuples(ByteBuffer.wrap(copyPage(records)));
+            sharedRecords = false;
+        }
+    }
+
+    /**
+     * Moves the bytes of this page back to the heap, so the pool can hand its
+     * frame to another page. Tuples and iterators of the page stay valid.
+     *
+     * @return the number of the frame the page was in, -1 if it was not in one
+     */
+    synchronized int releaseFrame() {
+        int f = frameNo;
+        if (f >= 0) {
+            ByteBuffer heap = ByteBuffer.allocate(records.capacity());
+            heap.put(records.duplicate());
+            rebaseTuples(heap);
+            frameNo = -1;
+        }
+        return f;
+    }
+
+    private void rebaseTuples(ByteBuffer to) {
+        for (int i = 0; i < tuples.length; i++) {
+            // an inserted tuple may decode from some other page
+            if (tuples[i] instanceof LazyTuple && !inserted[i]) {
+                ((LazyTuple) tuples[i]).rebase(records, to);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        records = to;
+    }
 
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+    // some code goes here
+        return pid;
+    }
+
+    /**
+     * Returns the position on the page of field j of the record in slot i.
+     * Records are stored one after the other behind the header; subclasses
+     * may place the fields differently.
+     */
+    int fieldOffset(int i, int j) {
+        return headerOffset() + header.length + i * td.getSize() + fieldStart[j];
+    }
+
+    /**
+     * Returns the tuple in slot i, which must be in use. A record that has not
+     * been asked for before is handed out as a {@link LazyTuple} over data,
+     * so its fields are only decoded when they are used.
+     */
+    synchronized Tuple tupleAt(int i) {
+        Tuple t = tuples[i];
+        if (t == null) {
+            int[] pos = new int[td.numFields()];
+            for (int j = 0; j < pos.length; j++) {
+                pos[j] = fieldOffset(i, j);
+            }
+            t = new LazyTuple(td, records, pos, new RecordId(pid, i));
+            tuples[i] = t;
+        }
         return t;
     }
 
+    /**
+     * @return true if the record in slot i is still the one in data, i.e. it
+     *         was read with the page and none of its fields has been set
+     */
+    boolean isAsRead(int i) {
+        Tuple t = tuples[i];
+        return !inserted[i] && (t == null || !((LazyTuple) t).isModified());
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -171,65 +428,43 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    public synchronized byte[] getPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer src = records.duplicate();
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+        System.arraycopy(header, 0, page, headerOffset(), header.length);
 
-        // create the tuples
+        // create the tuples; empty slots and padding stay zero
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
                 continue;
             }
 
-            // non-empty slot
+            // a record nobody changed is copied as it was read
+            boolean asRead = isAsRead(i);
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                int pos = fieldOffset(i, j);
+                int len = td.getFieldType(j).getLen();
+                if (asRead) {
+                    src.position(pos);
+                    src.get(page, pos, len);
+                    continue;
+                }
+                baos.reset();
                 try {
-                    f.serialize(dos);
-                
+                    tuples[i].getField(j).serialize(dos);
+                    dos.flush();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                System.arraycopy(baos.toByteArray(), 0, page, pos, len);
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return page;
     }
 
     /**
@@ -259,12 +494,12 @@ public class HeapPage implements Page {
         assert t != null;
         RecordId recToDel = t.getRecordId();
         if (recToDel != null && pid.equals(recToDel.getPageId())) {
-            for (int i = 0; i < numSlots; i++) {
-                if (isSlotUsed(i) && t.getRecordId().equals(tuples[i].getRecordId())) {
-                    markSlotUsed(i, false);
-                    tuples[i] = null;
-                    return;
-                }
+            int i = recToDel.getTupleNumber();
+            if (isSlotUsed(i)) {
+                markSlotUsed(i, false);
+                tuples[i] = null;
+                firstFreeSlot = Math.min(firstFreeSlot, i);
+                return;
             }
             throw new DbException("deleteTuple Error,record not found");
         }
@@ -281,21 +516,37 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        insertTuple(t, null);
+    }
+
+    /**
+     * Adds the specified tuple to the page like {@link #insertTuple(Tuple)},
+     * for a transaction that may reuse the slots it holds (see holdSlot).
+     */
+    void insertTuple(Tuple t, TransactionId tid) throws DbException {
         assert t != null;
         if (td.equals(t.getTupleDesc())) {
-            for (int i = 0; i < numSlots; i++) {
-                if (!isSlotUsed(i)) {
-                    markSlotUsed(i, true);
-                    t.setRecordId(new RecordId(pid,i));
-                    tuples[i] = t;
-                    return;
+            int i = freeSlotFor(tid);
+            if (i < numSlots) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid,i));
+                tuples[i] = t;
+                inserted[i] = true;
+                if (i == firstFreeSlot) {
+                    firstFreeSlot = i + 1;
                 }
+                return;
             }
             throw new DbException("insertTuple Error,no slot for new tuple");
         }
         throw new DbException("insertTuple Error,tupleDesc mismatch");
     }
 
+    // no slot below this one is free, so inserts can start looking here
+    private int firstFreeSlot = 0;
+    // slots held by transactions, see holdSlot; null if there are none
+    private Map<Integer, TransactionId> heldSlots;
+
     private boolean dirty;
     private TransactionId dirtyby;
     /**
@@ -306,6 +557,7 @@ public class HeapPage implements Page {
         // some code goes here
 	// not necessary for lab1
         if (dirty) {
+            copyRecords();
             this.dirty = dirty;
             this.dirtyby = tid;
         } else {
@@ -323,6 +575,35 @@ public class HeapPage implements Page {
         return dirtyby;
     }
 
+    /**
+     * Returns true if t can be added to this page with {@link #insertTuple}.
+     * Unlike getNumEmptySlots this does not scan the whole header, so it is
+     * cheap to call once per tuple while filling a page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoomFor(t, null);
+    }
+
+    /**
+     * Returns true if t can be added to this page with {@link
+     * #insertTuple(Tuple, TransactionId)} for tid.
+     */
+    boolean hasRoomFor(Tuple t, TransactionId tid) {
+        return freeSlotFor(tid) < numSlots;
+    }
+
+    /** @return the first empty slot tid may insert into, or numSlots if there is none */
+    private int freeSlotFor(TransactionId tid) {
+        while (firstFreeSlot < numSlots && isSlotUsed(firstFreeSlot)) {
+            firstFreeSlot++;
+        }
+        int i = firstFreeSlot;
+        while (i < numSlots && (isSlotUsed(i) || isHeldFrom(i, tid))) {
+            i++;
+        }
+        return i;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -356,6 +637,7 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+        copyRecords();
         if (i < numSlots) {
             int hdNo = i / 8;
             int offset = i % 8;
@@ -378,7 +660,7 @@ public class HeapPage implements Page {
             ArrayList<Tuple> tupleArrayList = new ArrayList<>(tuples.length);
             for (int i=0;i< tuples.length;i++) {
                 if (isSlotUsed(i)) {
-                    tupleArrayList.add(tuples[i]);
+                    tupleArrayList.add(tupleAt(i));
                 }
             }
             iter = tupleArrayList.iterator();
@@ -409,5 +691,21 @@ public class HeapPage implements Page {
         return new HeapPageTupleIterator();
     }
 
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. They
+     *         are tested one by one here; formats that can test a field
+     *         without going through the tuples override this.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        List<Tuple> matches = new ArrayList<>();
+        for (Iterator<Tuple> it = iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            if (p.filter(t)) {
+                matches.add(t);
+            }
+        }
+        return matches.iterator();
+    }
+
 }
 
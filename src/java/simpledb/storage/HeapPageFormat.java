@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The on-disk layout of the pages of a HeapFile. Every page of a file has the
+ * same format, chosen when the table is created (see the table options of
+ * {@link simpledb.common.Catalog#loadSchema}).
+ */
+public enum HeapPageFormat {
+
+    /**
+     * Fixed-size slots of {@link TupleDesc#getSize} bytes behind a bitmap
+     * header, see {@link HeapPage}. The format of files without a table option.
+     */
+    FIXED(true) {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new HeapPage(id, data);
+        }
+
+        @Override
+        public byte[] createEmptyPageData() {
+            return HeapPage.createEmptyPageData();
+        }
+    },
+
+    /**
+     * Variable-length records behind a slot directory, see
+     * {@link SlottedHeapPage}.
+     */
+    SLOTTED(false) {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new SlottedHeapPage(id, data);
+        }
+
+        @Override
+        public byte[] createEmptyPageData() {
+            return SlottedHeapPage.createEmptyPageData();
+        }
+    },
+
+    /**
+     * The slots of FIXED, stored column by column, see {@link PaxHeapPage}.
+     */
+    PAX(true) {
+        @Override
+        public HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+            return new PaxHeapPage(id, data);
+        }
+
+        @Override
+        public byte[] createEmptyPageData() {
+            return PaxHeapPage.createEmptyPageData();
+        }
+    };
+
+    private final boolean fixedWidth;
+
+    HeapPageFormat(boolean fixedWidth) {
+        this.fixedWidth = fixedWidth;
+    }
+
+    /**
+     * @return true if every tuple takes the same room on a page of this
+     *         format, so that a page has room for any tuple or for none
+     */
+    public boolean isFixedWidth() {
+        return fixedWidth;
+    }
+
+    /**
+     * Parses a page of this format out of data, without changing the
+     * buffer's position.
+     */
+    public abstract HeapPage newPage(HeapPageId id, ByteBuffer data) throws IOException;
+
+    /**
+     * @return the data of an empty page of this format
+     */
+    public abstract byte[] createEmptyPageData();
+}
@@ -41,7 +41,12 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        return String.valueOf(tableId).concat("-").concat(String.valueOf(pgNo)).hashCode();
+        return 31 * tableId + pgNo;
+    }
+
+    /** Heap page ids are of kind 0. */
+    public long pack() {
+        return PageId.pack(tableId, 0, pgNo);
     }
 
     /**
@@ -0,0 +1,106 @@
+package simpledb.storage;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A cache that indexes the pages of another cache in a {@link PageTable}, so
+ * that looking a page up takes no lock: containsKey and peek only probe the
+ * table, and get of a cached page takes the lock of the replacement policy
+ * just to record the access, not the cache's own. The buffer pool wraps each
+ * of its shards in one.
+ * <p>
+ * Every change goes through the policy and the table while holding this
+ * cache's monitor, which is the shard lock of the buffer pool. A lookup that
+ * misses in the table takes the monitor and asks again, so that it waits
+ * for an eviction in progress, e.g. one that is writing the page out, as it
+ * would have with a single lock.
+ *
+ * @Threadsafe
+ */
+class IndexedCache implements Cache {
+
+    private final Cache policy;
+    private final PageTable table;
+
+    IndexedCache(Cache policy) {
+        this.policy = policy;
+        this.table = new PageTable(policy.getCapacity());
+    }
+
+    @Override
+    public boolean containsKey(PageId pid) {
+        return peek(pid) != null;
+    }
+
+    @Override
+    public Page get(PageId pid) {
+        if (table.get(pid.pack()) != null) {
+            Page pg = policy.get(pid);
+            if (pg != null) {
+                return pg;
+            }
+        }
+        synchronized (this) {
+            return policy.get(pid);
+        }
+    }
+
+    @Override
+    public Page peek(PageId pid) {
+        Page pg = table.get(pid.pack());
+        if (pg != null) {
+            return pg;
+        }
+        synchronized (this) {
+            return table.get(pid.pack());
+        }
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        policy.put(pid, pg);
+        table.put(pid.pack(), pg);
+    }
+
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        policy.prefetch(pid, pg);
+        table.put(pid.pack(), pg);
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        table.remove(pid.pack());
+        return policy.remove(pid);
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        Page pg = policy.evictPage(canEvict);
+        if (pg != null) {
+            table.remove(pg.getId().pack());
+        }
+        return pg;
+    }
+
+    @Override
+    public int size() {
+        return policy.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return policy.getCapacity();
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        policy.setCapacity(capacity);
+    }
+
+    @Override
+    public List<PageId> pageIds() {
+        return policy.pageIds();
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * LazyTuple is a tuple handed out by a page that still holds its record in
+ * the page's raw bytes. A field is decoded the first time it is asked for and
+ * kept from then on, so an operator that looks at one column of a tuple only
+ * pays for that column.
+ * <p>
+ * A LazyTuple reads the record out of the page's buffer, so the page must
+ * not change the record's bytes while the tuple can still decode from them;
+ * pages that do move or clear records call {@link #materialize} first, and
+ * pages that move their bytes to another buffer call {@link #rebase}.
+ * <p>
+ * Records are laid out either in fixed-width fields, as on a {@link HeapPage}
+ * (whose subclasses may place the fields anywhere on the page), or in the
+ * variable-length layout of a {@link SlottedHeapPage}.
+ */
+class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    // the page holding the record; null once every field has been decoded or set
+    private transient ByteBuffer data;
+    private transient boolean varLength;
+    // position of each field in data, -1 if not known yet (variable length only)
+    private transient int[] fieldPos;
+    private transient boolean[] decoded;
+    private boolean modified;
+
+    /**
+     * Creates a view of a record of fixed-width fields, as laid out by
+     * {@link HeapPage}: a string is its length as an int followed by
+     * Type.STRING_LEN bytes.
+     *
+     * @param td the schema of the record
+     * @param data the page holding the record
+     * @param fieldPos the position of each field of the record in data
+     * @param rid the RecordId of the tuple
+     */
+    LazyTuple(TupleDesc td, ByteBuffer data, int[] fieldPos, RecordId rid) {
+        super(td);
+        this.data = data;
+        this.varLength = false;
+        this.decoded = new boolean[td.numFields()];
+        this.fieldPos = fieldPos;
+        setRecordId(rid);
+    }
+
+    /**
+     * Creates a view of a record in the variable-length layout of
+     * {@link SlottedHeapPage}, whose fields are found by walking the record.
+     *
+     * @param td the schema of the record
+     * @param data the page holding the record
+     * @param offset the position of the record in data
+     * @param rid the RecordId of the tuple
+     */
+    LazyTuple(TupleDesc td, ByteBuffer data, int offset, RecordId rid) {
+        super(td);
+        this.data = data;
+        this.varLength = true;
+        this.decoded = new boolean[td.numFields()];
+        this.fieldPos = new int[td.numFields()];
+        Arrays.fill(fieldPos, -1);
+        fieldPos[0] = offset;
+        setRecordId(rid);
+    }
+
+    /**
+     * @return true if a field of this tuple has been set since it was read
+     *         from its page, so that the page's bytes no longer describe it
+     */
+    boolean isModified() {
+        return modified;
+    }
+
+    private int position(int i) {
+        if (fieldPos[i] < 0) {
+            // find the field after the last one whose position is known
+            int j = i;
+            while (fieldPos[j] < 0) {
+                j--;
+            }
+            for (; j < i; j++) {
+                int len = getTupleDesc().getFieldType(j) == Type.INT_TYPE
+                        ? 4 : 2 + Short.toUnsignedInt(data.getShort(fieldPos[j]));
+                fieldPos[j + 1] = fieldPos[j] + len;
+            }
+        }
+        return fieldPos[i];
+    }
+
+    private Field decode(int i) {
+        int pos = position(i);
+        if (getTupleDesc().getFieldType(i) == Type.INT_TYPE) {
+            return new IntField(data.getInt(pos));
+        }
+        int len = varLength ? Short.toUnsignedInt(data.getShort(pos)) : data.getInt(pos);
+        byte[] chars = new byte[len];
+        ByteBuffer src = data.duplicate();
+        src.position(pos + (varLength ? 2 : 4));
+        src.get(chars);
+        return new StringField(new String(chars), Type.STRING_LEN);
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null) {
+            synchronized (this) {
+                if (decoded != null && !decoded[i]) {
+                    super.setField(i, decode(i));
+                    decoded[i] = true;
+                }
+                f = super.getField(i);
+            }
+        }
+        return f;
+    }
+
+    @Override
+    public synchronized void setField(int i, Field f) {
+        super.setField(i, f);
+        if (decoded != null) {
+            decoded[i] = true;
+        }
+        modified = true;
+    }
+
+    /**
+     * Points this tuple at to, which must hold the same bytes, if it still
+     * decodes from from.
+     */
+    synchronized void rebase(ByteBuffer from, ByteBuffer to) {
+        if (data == from) {
+            data = to;
+        }
+    }
+
+    /**
+     * Decodes every field that has not been decoded yet and lets go of the
+     * page's bytes.
+     */
+    synchronized void materialize() {
+        if (decoded == null) {
+            return;
+        }
+        for (int i = 0; i < decoded.length; i++) {
+            getField(i);
+        }
+        data = null;
+        decoded = null;
+        fieldPos = null;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        materialize();
+        return super.fields();
+    }
+
+    @Override
+    public String toString() {
+        materialize();
+        return super.toString();
+    }
+
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        super.resetTupleDesc(td);
+        // the fields are gone, so is the link to the record
+        data = null;
+        decoded = null;
+        fieldPos = null;
+    }
+
+    /** Serializes as a plain Tuple, since the page's bytes are not kept. */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < getTupleDesc().numFields(); i++) {
+            t.setField(i, getField(i));
+        }
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
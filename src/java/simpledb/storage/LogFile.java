@@ -6,7 +6,12 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.lang.reflect.*;
 
 /*
@@ -36,6 +41,10 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<p>
+Commits are forced in groups by a flusher thread (see logCommit),
+which forces the log without holding its lock.
 */
 
 /**
@@ -95,6 +104,21 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** System property that sets the default group commit wait, in microseconds; see setGroupCommitWait. */
+    public static final String GROUP_COMMIT_WAIT_PROPERTY = "simpledb.log.groupcommit.wait";
+    private static final long DEFAULT_GROUP_COMMIT_WAIT = 0;
+
+    // log sequence numbers count the records appended since the log was
+    // opened, unlike offsets, which truncation changes
+    long appendedLsn = 0; //protected by this
+    long commitLsn = 0; // the last commit record appended //protected by this
+    long forcedLsn = 0; // the records up to this one are on disk //protected by this
+    int numForces = 0; //protected by this
+    private boolean flushScheduled = false; //protected by this
+    private IOException flushFailure; //protected by this
+    private long groupCommitWaitNanos; //protected by this
+    private final ThreadPoolExecutor flusher;
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -111,6 +135,16 @@ public class LogFile {
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
+        // the flusher goes away when idle, so logs dropped by Database.reset
+        // do not keep threads around
+        flusher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "simpledb-log-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.allowCoreThreadTimeOut(true);
+        setGroupCommitWait(Long.getLong(GROUP_COMMIT_WAIT_PROPERTY, DEFAULT_GROUP_COMMIT_WAIT));
+
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
                 // public void run() { shutdown(); }
@@ -127,6 +161,7 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appendedLsn++;
         if(recoveryUndecided){
             recoveryUndecided = false;
             raf.seek(0);
@@ -140,6 +175,27 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** Return the number of times the log was forced to disk */
+    public synchronized int getNumForces() {
+        return numForces;
+    }
+
+    /**
+     * Sets the most time the flusher waits for more commits to join a
+     * group before forcing it. A longer wait makes larger groups when
+     * commits come quickly, at the cost of the latency of each commit.
+     * With no wait, the commits that arrive while a force is in progress
+     * still share the next one.
+     *
+     * @param micros the wait, in microseconds
+     */
+    public synchronized void setGroupCommitWait(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("negative group commit wait " + micros);
+        }
+        groupCommitWaitNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -170,8 +226,17 @@ public class LogFile {
         }
     }
 
-    /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+    /** Write a commit record to the log for the specified tid,
+        and wait until the log is forced to disk past it.
+
+        Commits are forced in groups: the record is appended to the log,
+        and the flusher thread forces once for all the commit records
+        appended since its last force, after waiting up to the group
+        commit wait (see setGroupCommitWait) for more. The log's lock is
+        let go while the commit waits, so that others can append their
+        records meanwhile. Any other force of the log completes the
+        commits it covers too. Once the flusher fails to force the log,
+        every commit that waits on it fails.
 
         @param tid The committing transaction.
     */
@@ -184,8 +249,81 @@ public class LogFile {
         raf.writeLong(tid.getId());
         raf.writeLong(currentOffset);
         currentOffset = raf.getFilePointer();
-        force();
         tidToFirstLogRecord.remove(tid.getId());
+
+        long lsn = appendedLsn;
+        commitLsn = lsn;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.execute(this::flushCommits);
+        }
+        try {
+            while (forcedLsn < lsn) {
+                if (flushFailure != null) {
+                    throw new IOException("could not force the log", flushFailure);
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the commit of " + tid.getId());
+        }
+    }
+
+    /**
+     * The flusher's task: forces the log until every commit record
+     * appended is on disk. The log's lock is not held while forcing, so
+     * the commits that arrive meanwhile make the next group.
+     */
+    private void flushCommits() {
+        try {
+            while (true) {
+                FileChannel channel;
+                long lsn;
+                synchronized (this) {
+                    if (forcedLsn >= commitLsn) {
+                        flushScheduled = false;
+                        return;
+                    }
+                    long deadline = System.nanoTime() + groupCommitWaitNanos;
+                    for (long left = groupCommitWaitNanos; left > 0; left = deadline - System.nanoTime()) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                    channel = raf.getChannel();
+                    lsn = appendedLsn;
+                }
+                try {
+                    channel.force(true);
+                } catch (ClosedChannelException e) {
+                    // logTruncate put a new file in place: force that one,
+                    // unless the log was shut down
+                    synchronized (this) {
+                        if (raf.getChannel() == channel) {
+                            throw e;
+                        }
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    forced(lsn);
+                }
+            }
+        } catch (Exception e) {
+            synchronized (this) {
+                flushFailure = e instanceof IOException ? (IOException) e : new IOException(e);
+                flushScheduled = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Notes that the records up to lsn are on disk, and wakes the commits waiting for them. */
+    private void forced(long lsn) {
+        numForces++;
+        if (lsn > forcedLsn) {
+            forcedLsn = lsn;
+            notifyAll();
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -267,7 +405,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -277,10 +415,10 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -568,7 +706,9 @@ public class LogFile {
     }
 
     public  synchronized void force() throws IOException {
+        long lsn = appendedLsn;
         raf.getChannel().force(true);
+        forced(lsn);
     }
 
 }
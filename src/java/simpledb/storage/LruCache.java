@@ -0,0 +1,107 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The {@link ReplacementPolicy#LRU} cache: evicts the least recently used
+ * page. The pages are kept in a LinkedHashMap, moved to its end on every
+ * access, so that every operation but eviction is O(1). Eviction walks the
+ * map from its least recently used end past the pages canEvict rejects, so
+ * it costs O(1) plus one step per pinned or unevictable dirty page in its
+ * way.
+ *
+ * @Threadsafe
+ */
+class LruCache implements Cache {
+
+    private int capacity;
+    // least recently used first
+    private final LinkedHashMap<PageId, Page> pages;
+
+    LruCache(int capacity) {
+        this.capacity = capacity;
+        this.pages = new LinkedHashMap<>(capacity * 4 / 3 + 1);
+    }
+
+    @Override
+    public synchronized boolean containsKey(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    @Override
+    public synchronized Page get(PageId pid) {
+        Page pg = pages.remove(pid);
+        if (pg != null) {
+            pages.put(pid, pg);
+        }
+        return pg;
+    }
+
+    @Override
+    public synchronized Page peek(PageId pid) {
+        return pages.get(pid);
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        if (pages.containsKey(pid)) {
+            // replacing the value keeps the page's place
+            pages.put(pid, pg);
+            return;
+        }
+        if (pages.size() >= capacity) {
+            throw new IllegalStateException("cache full");
+        }
+        pages.put(pid, pg);
+    }
+
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        put(pid, pg);
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        return pages.remove(pid);
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        Iterator<Page> it = pages.values().iterator();
+        while (it.hasNext()) {
+            Page pg = it.next();
+            if (canEvict.test(pg)) {
+                it.remove();
+                return pg;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return pages.size();
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (pages.size() > capacity) {
+            throw new IllegalArgumentException("cache holds more than " + capacity + " pages");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized List<PageId> pageIds() {
+        return new ArrayList<>(pages.keySet());
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * The {@link ReplacementPolicy#LRU_K} cache (O'Neil et al.): evicts the page
+ * whose K-th most recent access is the oldest. Pages accessed fewer than K
+ * times count as accessed infinitely long ago and go first, least recently
+ * used first, so a page that a scan touches once does not push out pages
+ * that are used again and again.
+ * <p>
+ * The access history of evicted pages is remembered for as many pages as the
+ * cache holds, so that a page that comes back soon is judged by all its
+ * accesses.
+ * <p>
+ * The pages are kept ordered by their K-th most recent access, which makes
+ * accesses and evictions O(log n) rather than O(1); evictions also step over
+ * every pinned or unevictable dirty page ahead of the victim.
+ *
+ * @Threadsafe
+ */
+class LruKCache implements Cache {
+
+    static final int DEFAULT_K = 2;
+
+    private static class Entry {
+        final PageId pid;
+        Page page;
+        // the times of the last K accesses, most recent at (next - 1) % K
+        final long[] history;
+        int count;
+        int next;
+
+        Entry(PageId pid, int k) {
+            this.pid = pid;
+            this.history = new long[k];
+        }
+
+        long last() {
+            return history[(next + history.length - 1) % history.length];
+        }
+
+        /** The time of the K-th most recent access, or -1 if there was none. */
+        long kth() {
+            return count < history.length ? -1 : history[next];
+        }
+
+        void access(long time) {
+            history[next] = time;
+            next = (next + 1) % history.length;
+            count++;
+        }
+    }
+
+    // accesses are numbered, so no two pages have the same last access
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparingLong(Entry::kth).thenComparingLong(Entry::last);
+
+    private int capacity;
+    private final int k;
+    private final HashMap<PageId, Entry> resident;
+    private final TreeSet<Entry> order = new TreeSet<>(ORDER);
+    // history of evicted pages, oldest first
+    private final LinkedHashMap<PageId, Entry> retained;
+    // pages read ahead whose first get is yet to come
+    private final HashSet<PageId> prefetched = new HashSet<>();
+    private long clock;
+
+    LruKCache(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    LruKCache(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("K must be at least 1");
+        }
+        this.capacity = capacity;
+        this.k = k;
+        this.resident = new HashMap<>(capacity * 4 / 3 + 1);
+        this.retained = new LinkedHashMap<PageId, Entry>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Entry> eldest) {
+                return size() > LruKCache.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public synchronized boolean containsKey(PageId pid) {
+        return resident.containsKey(pid);
+    }
+
+    @Override
+    public synchronized Page get(PageId pid) {
+        Entry e = resident.get(pid);
+        if (e == null) {
+            return null;
+        }
+        if (prefetched.remove(pid)) {
+            return e.page;
+        }
+        order.remove(e);
+        e.access(++clock);
+        order.add(e);
+        return e.page;
+    }
+
+    @Override
+    public synchronized Page peek(PageId pid) {
+        Entry e = resident.get(pid);
+        return e == null ? null : e.page;
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        Entry e = resident.get(pid);
+        if (e != null) {
+            e.page = pg;
+            return;
+        }
+        if (resident.size() >= capacity) {
+            throw new IllegalStateException("cache full");
+        }
+        e = retained.remove(pid);
+        if (e == null) {
+            e = new Entry(pid, k);
+        }
+        resident.put(pid, e);
+        e.page = pg;
+        e.access(++clock);
+        order.add(e);
+    }
+
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        boolean present = resident.containsKey(pid);
+        put(pid, pg);
+        if (!present) {
+            prefetched.add(pid);
+        }
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        prefetched.remove(pid);
+        Entry e = resident.remove(pid);
+        if (e == null) {
+            return null;
+        }
+        order.remove(e);
+        return e.page;
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        Iterator<Entry> it = order.iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (canEvict.test(e.page)) {
+                it.remove();
+                resident.remove(e.pid);
+                prefetched.remove(e.pid);
+                Page pg = e.page;
+                e.page = null;
+                retained.put(e.pid, e);
+                return pg;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return resident.size();
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * The history shrinks with the cache as pages are evicted.
+     */
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (resident.size() > capacity) {
+            throw new IllegalArgumentException("cache holds more than " + capacity + " pages");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized List<PageId> pageIds() {
+        List<PageId> ids = new ArrayList<>(order.size());
+        for (Entry e : order) {
+            ids.add(e.pid);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * Lz4BlockCodec compresses blocks of bytes in the LZ4 block format: a series
+ * of sequences, each a run of literal bytes followed by a match that copies
+ * earlier output. It favours speed over ratio, which suits pages that are
+ * mostly padding and empty slots.
+ * <p>
+ * A sequence starts with a token byte whose high nibble is the number of
+ * literals and whose low nibble is the match length minus 4; a nibble of 15
+ * is continued by bytes of 255 and a final byte below 255. The literals
+ * follow, then the match offset as a little-endian unsigned short and the
+ * rest of the match length. The last sequence has literals only, and the last
+ * 5 bytes of a block are always literals.
+ */
+public class Lz4BlockCodec {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    // no match may start in the last MF_LIMIT bytes
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+
+    private Lz4BlockCodec() {
+    }
+
+    /**
+     * @return the largest size srcLen bytes can take once compressed
+     */
+    public static int maxCompressedLength(int srcLen) {
+        return srcLen + srcLen / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int v) {
+        return (v * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static int writeLength(byte[] dst, int dp, int len) {
+        while (len >= 255) {
+            dst[dp++] = (byte) 255;
+            len -= 255;
+        }
+        dst[dp++] = (byte) len;
+        return dp;
+    }
+
+    /**
+     * Compresses srcLen bytes of src, starting at srcOff, into dst.
+     *
+     * @param dst must hold at least {@link #maxCompressedLength}(srcLen) bytes
+     * @return the number of bytes written to dst
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst) {
+        int[] table = new int[1 << HASH_BITS];
+        java.util.Arrays.fill(table, -1);
+        int end = srcOff + srcLen;
+        int limit = end - MF_LIMIT;
+        int anchor = srcOff;
+        int ip = srcOff;
+        int dp = 0;
+
+        while (ip < limit) {
+            int seq = readInt(src, ip);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                ip++;
+                continue;
+            }
+
+            int matchLen = MIN_MATCH;
+            while (ip + matchLen < end - LAST_LITERALS && src[ref + matchLen] == src[ip + matchLen]) {
+                matchLen++;
+            }
+
+            // token, literals, offset, rest of the match length
+            int litLen = ip - anchor;
+            int token = dp++;
+            int ml = matchLen - MIN_MATCH;
+            dst[token] = (byte) ((Math.min(litLen, 15) << 4) | Math.min(ml, 15));
+            if (litLen >= 15) {
+                dp = writeLength(dst, dp, litLen - 15);
+            }
+            System.arraycopy(src, anchor, dst, dp, litLen);
+            dp += litLen;
+            int offset = ip - ref;
+            dst[dp++] = (byte) offset;
+            dst[dp++] = (byte) (offset >>> 8);
+            if (ml >= 15) {
+                dp = writeLength(dst, dp, ml - 15);
+            }
+
+            ip += matchLen;
+            anchor = ip;
+        }
+
+        int litLen = end - anchor;
+        dst[dp++] = (byte) (Math.min(litLen, 15) << 4);
+        if (litLen >= 15) {
+            dp = writeLength(dst, dp, litLen - 15);
+        }
+        System.arraycopy(src, anchor, dst, dp, litLen);
+        return dp + litLen;
+    }
+
+    /**
+     * Decompresses srcLen bytes of src, starting at srcOff, into dst, which
+     * must have room for exactly dstLen bytes of output.
+     *
+     * @throws IOException if src is not a valid block of dstLen bytes
+     */
+    public static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstLen)
+            throws IOException {
+        int sp = srcOff;
+        int end = srcOff + srcLen;
+        int dp = 0;
+        try {
+            while (true) {
+                int token = src[sp++] & 0xFF;
+                int litLen = token >>> 4;
+                if (litLen == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                if (sp + litLen > end || dp + litLen > dstLen) {
+                    throw new IOException("corrupt block: literals past the end");
+                }
+                System.arraycopy(src, sp, dst, dp, litLen);
+                sp += litLen;
+                dp += litLen;
+                if (sp == end) {
+                    break;
+                }
+
+                int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+                sp += 2;
+                int matchLen = token & 0xF;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                if (offset == 0 || offset > dp || dp + matchLen > dstLen) {
+                    throw new IOException("corrupt block: bad match");
+                }
+                // byte by byte, since the match may overlap its own output
+                for (int i = 0; i < matchLen; i++, dp++) {
+                    dst[dp] = dst[dp - offset];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("corrupt block: truncated");
+        }
+        if (dp != dstLen) {
+            throw new IOException("corrupt block: " + dp + " bytes instead of " + dstLen);
+        }
+    }
+}
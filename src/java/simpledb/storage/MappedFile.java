@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * MappedFile is a read-only memory mapping of the file behind a DbFile opened
+ * in memory-mapped mode. Pages are handed out as slices of the mapping, so
+ * reading a page costs neither a read syscall nor a copy into a byte array.
+ * <p>
+ * The file is mapped in chunks of CHUNK_SIZE bytes. A chunk only covers the
+ * part of the file that existed when it was mapped; when a read reaches past
+ * that, the chunk is mapped again against the current file size, so the
+ * mapping grows as the file is extended. A chunk may extend past CHUNK_SIZE
+ * by up to one page so that a page never straddles two chunks.
+ * <p>
+ * Writes still go through the file channel; on a unified page cache they are
+ * visible through the mapping straight away.
+ *
+ * @Threadsafe
+ */
+public class MappedFile {
+
+    static final int CHUNK_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+
+    public MappedFile(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns a read-only view of len bytes of the file starting at offset.
+     *
+     * @throws IllegalArgumentException if the range reaches past the end of the file
+     */
+    public ByteBuffer slice(long offset, int len) throws IOException {
+        int idx = (int) (offset / CHUNK_SIZE);
+        long base = (long) idx * CHUNK_SIZE;
+        int pos = (int) (offset - base);
+
+        MappedByteBuffer chunk = getChunk(idx, base, pos + len);
+        ByteBuffer dup = chunk.duplicate();
+        dup.position(pos);
+        dup.limit(pos + len);
+        return dup.slice();
+    }
+
+    private synchronized MappedByteBuffer getChunk(int idx, long base, int minLen) throws IOException {
+        while (chunks.size() <= idx) {
+            chunks.add(null);
+        }
+        MappedByteBuffer chunk = chunks.get(idx);
+        if (chunk == null || chunk.capacity() < minLen) {
+            long size = channel.size();
+            if (base + minLen > size) {
+                throw new IllegalArgumentException("read past end of file");
+            }
+            long mapLen = Math.min(size - base, Math.max(CHUNK_SIZE, minLen));
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY, base, mapLen);
+            chunks.set(idx, chunk);
+        }
+        return chunk;
+    }
+}
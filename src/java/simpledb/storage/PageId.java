@@ -32,5 +32,32 @@ public interface PageId {
     boolean equals(Object o);
 
     int getPageNumber();
+
+    /**
+     * @return this id packed into a long, equal to the packed form of
+     *   another id exactly when the ids are equal, so that a page table can
+     *   be keyed on it without allocating (see {@link #pack(int, int, int)})
+     */
+    long pack();
+
+    /** Page numbers of packed ids take the low PACKED_PAGE_BITS bits. */
+    int PACKED_PAGE_BITS = 29;
+
+    /**
+     * Packs a page id: the table id in the high 32 bits, then a 3-bit kind
+     * that tells apart the kinds of page id of a table, then the page
+     * number. Kind 7 is never used, so no packed id is -1.
+     *
+     * @param tableId the table of the page
+     * @param kind the kind of page id, from 0 to 6
+     * @param pgNo the page number, below 2^PACKED_PAGE_BITS
+     * @throws IllegalArgumentException if the page number does not fit
+     */
+    static long pack(int tableId, int kind, int pgNo) {
+        if (pgNo >>> PACKED_PAGE_BITS != 0) {
+            throw new IllegalArgumentException("page number " + pgNo + " does not fit a packed page id");
+        }
+        return ((long) tableId << 32) | ((long) kind << PACKED_PAGE_BITS) | pgNo;
+    }
 }
 
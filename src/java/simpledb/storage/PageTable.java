@@ -0,0 +1,161 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An open-addressing hash table of pages keyed on packed page ids (see
+ * {@link PageId#pack()}), whose lookups neither lock nor allocate.
+ * <p>
+ * One thread at a time may change the table: the caller serializes put and
+ * remove. get runs concurrently with them, without locking. A slot is bound
+ * to a key the first time the key is put, and keeps it until the table is
+ * rebuilt; a removed page leaves its key behind with a null page. So a
+ * reader that finds its key in a slot can trust the page in the slot. Once
+ * bound slots make up three quarters of the table, put rebuilds it with only
+ * the pages present, and publishes the new arrays at once.
+ *
+ * @Threadsafe for one writer and any number of readers
+ */
+public class PageTable {
+
+    /** Marks a free slot. No packed page id is -1. */
+    private static final long FREE = -1L;
+
+    private static final class Slots {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<Page> pages;
+
+        Slots(int length) {
+            keys = new AtomicLongArray(length);
+            pages = new AtomicReferenceArray<>(length);
+            for (int i = 0; i < length; i++) {
+                keys.set(i, FREE);
+            }
+        }
+    }
+
+    private volatile Slots slots;
+    // slots bound to a key and pages present, only used by the writer
+    private int bound;
+    private int size;
+
+    /**
+     * @param expected the number of pages the table is expected to hold
+     */
+    public PageTable(int expected) {
+        this.slots = new Slots(lengthFor(expected));
+    }
+
+    /** @return a power of two at least twice n */
+    private static int lengthFor(int n) {
+        int length = 16;
+        while (length < 2 * n) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    private static int slotOf(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * @return the page with the given packed id, or null if it is not in the
+     *         table
+     */
+    public Page get(long key) {
+        Slots s = slots;
+        int mask = s.keys.length() - 1;
+        for (int i = slotOf(key, mask); ; i = (i + 1) & mask) {
+            long k = s.keys.get(i);
+            if (k == key) {
+                return s.pages.get(i);
+            }
+            if (k == FREE) {
+                return null;
+            }
+        }
+    }
+
+    /** Adds a page to the table, or replaces the page with the same id. */
+    public void put(long key, Page pg) {
+        Slots s = slots;
+        int i = find(s, key);
+        if (s.keys.get(i) == key) {
+            if (s.pages.getAndSet(i, pg) == null) {
+                size++;
+            }
+            return;
+        }
+        if (4 * (bound + 1) > 3 * s.keys.length()) {
+            s = rebuild(size + 1);
+            i = find(s, key);
+        }
+        // the page first, so that a reader that sees the key sees the page
+        s.pages.set(i, pg);
+        s.keys.set(i, key);
+        bound++;
+        size++;
+    }
+
+    /**
+     * Removes a page from the table.
+     *
+     * @return the page, or null if it was not in the table
+     */
+    public Page remove(long key) {
+        Slots s = slots;
+        int i = find(s, key);
+        if (s.keys.get(i) != key) {
+            return null;
+        }
+        Page pg = s.pages.getAndSet(i, null);
+        if (pg != null) {
+            size--;
+        }
+        return pg;
+    }
+
+    /** @return the number of pages in the table */
+    public int size() {
+        return size;
+    }
+
+    /** @return the slot bound to key, or the free slot where it would go */
+    private static int find(Slots s, long key) {
+        int mask = s.keys.length() - 1;
+        int i = slotOf(key, mask);
+        while (true) {
+            long k = s.keys.get(i);
+            if (k == key || k == FREE) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Moves the pages to new arrays with room for expected pages, leaving the
+     * keys of removed pages behind. Readers still probing the old arrays find
+     * the pages that were present when they were replaced.
+     */
+    private Slots rebuild(int expected) {
+        Slots old = slots;
+        Slots s = new Slots(lengthFor(expected));
+        int n = 0;
+        for (int i = 0; i < old.keys.length(); i++) {
+            Page pg = old.pages.get(i);
+            if (pg != null) {
+                int j = find(s, old.keys.get(i));
+                s.pages.set(j, pg);
+                s.keys.set(j, old.keys.get(i));
+                n++;
+            }
+        }
+        bound = n;
+        slots = s;
+        return s;
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * PaxHeapPage is the {@link HeapPageFormat#PAX} page format (partition
+ * attributes across). It holds the same slots as a {@link HeapPage}, behind
+ * the same header, but stores the page column by column: the values of field
+ * 0 of every slot, then those of field 1, and so on. Each field is stored as
+ * in a HeapPage record.
+ * <p>
+ * The page starts with the format version byte ({@link #FORMAT_VERSION}),
+ * which the header bitmap follows. A page of zeroes, as left by extending a
+ * file, reads as an empty page.
+ * <p>
+ * A scan that only looks at some of the fields touches only their part of the
+ * page, and the int values of a field lie next to each other, so that
+ * {@link #getIntColumn} can read them as one dense array. Scans that filter on
+ * an int field do so through {@link #iterator(Predicate)}.
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** The version byte that starts every PAX page. */
+    public static final byte FORMAT_VERSION = 2;
+
+    /** Where the header bitmap starts, behind the version byte. */
+    static final int HEADER_OFFSET = 1;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if data is not a PAX page
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a PaxHeapPage from a buffer holding the page as laid out on disk.
+     * The buffer's position is not changed.
+     *
+     * @throws IOException if data is not a PAX page
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        byte version = records.get(0);
+        if (version == 0 && getNumEmptySlots() == numSlots) {
+            // a zeroed page; the before image must carry the version byte
+            setBeforeImage();
+        } else if (version != FORMAT_VERSION) {
+            throw new IOException("not a PAX page: format version " + version);
+        }
+    }
+
+    /**
+     * @return the data of an empty PAX page
+     */
+    public static byte[] createEmptyPageData() {
+        byte[] data = HeapPage.createEmptyPageData();
+        data[0] = FORMAT_VERSION;
+        return data;
+    }
+
+    @Override
+    HeapPageFormat getFormat() {
+        return HeapPageFormat.PAX;
+    }
+
+    @Override
+    int headerOffset() {
+        return HEADER_OFFSET;
+    }
+
+    @Override
+    public synchronized byte[] getPageData() {
+        byte[] page = super.getPageData();
+        page[0] = FORMAT_VERSION;
+        return page;
+    }
+
+    /**
+     * Field j of every slot lies in one run of the page, starting where the
+     * runs of the fields before it end.
+     */
+    @Override
+    int fieldOffset(int i, int j) {
+        return HEADER_OFFSET + header.length + numSlots * fieldStart[j] + i * td.getFieldType(j).getLen();
+    }
+
+    /**
+     * Returns the values of int field j of every slot of this page, indexed
+     * by slot number. Slots that are not in use hold 0; use
+     * {@link #isSlotUsed} to tell them apart.
+     *
+     * @throws IllegalArgumentException if field j is not an int field
+     */
+    public int[] getIntColumn(int j) {
+        if (td.getFieldType(j) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + j + " is not an int field");
+        }
+        int[] values = new int[numSlots];
+        // the values as read, in one bulk copy
+        synchronized (this) {
+            ByteBuffer src = records.duplicate();
+            src.position(fieldOffset(0, j));
+            src.slice().asIntBuffer().get(values);
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                values[i] = 0;
+            } else if (!isAsRead(i)) {
+                values[i] = ((IntField) tuples[i].getField(j)).getValue();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Tests a predicate on an int field against the field's column, read by
+     * {@link #getIntColumn}, so that only the tuples that satisfy it are
+     * looked at.
+     */
+    @Override
+    public Iterator<Tuple> iterator(Predicate p) {
+        int j = p.getField();
+        if (td.getFieldType(j) != Type.INT_TYPE) {
+            return super.iterator(p);
+        }
+        int operand = ((IntField) p.getOperand()).getValue();
+        List<Tuple> matches = new ArrayList<>();
+        synchronized (this) {
+            int[] column = getIntColumn(j);
+            for (int i = 0; i < numSlots; i++) {
+                if (isSlotUsed(i) && compare(column[i], p.getOp(), operand)) {
+                    matches.add(tupleAt(i));
+                }
+            }
+        }
+        return matches.iterator();
+    }
+
+    /** Compares two ints the way {@link IntField#compare} does. */
+    private static boolean compare(int value, Predicate.Op op, int operand) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == operand;
+            case NOT_EQUALS:
+                return value != operand;
+            case GREATER_THAN:
+                return value > operand;
+            case GREATER_THAN_OR_EQ:
+                return value >= operand;
+            case LESS_THAN:
+                return value < operand;
+            case LESS_THAN_OR_EQ:
+                return value <= operand;
+        }
+        return false;
+    }
+}
@@ -72,10 +72,7 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        return String.valueOf(pid.hashCode()).
-                concat("-").
-                concat(String.valueOf(tupleno)).
-                hashCode();
+        return 31 * pid.hashCode() + tupleno;
 
     }
 
@@ -0,0 +1,83 @@
+package simpledb.storage;
+
+/**
+ * The policies a {@link BufferPool} can use to pick the page to evict when it
+ * needs room for another. The pool uses the policy it was constructed with,
+ * or the one named by the system property {@value #PROPERTY} (e.g.
+ * -Dsimpledb.bufferpool.policy=arc), LRU if it is not set. Database creates
+ * its buffer pool at startup, so the property selects the policy of the
+ * whole database.
+ */
+public enum ReplacementPolicy {
+
+    /** Least recently used, see {@link LruCache}. */
+    LRU {
+        @Override
+        Cache newCache(int capacity) {
+            return new LruCache(capacity);
+        }
+    },
+
+    /** Second chance with one reference bit per frame, see {@link ClockCache}. */
+    CLOCK {
+        @Override
+        Cache newCache(int capacity) {
+            return new ClockCache(capacity);
+        }
+    },
+
+    /** Oldest K-th most recent access, with K = 2, see {@link LruKCache}. */
+    LRU_K {
+        @Override
+        Cache newCache(int capacity) {
+            return new LruKCache(capacity);
+        }
+    },
+
+    /** A FIFO for new pages in front of an LRU list, see {@link TwoQueueCache}. */
+    TWO_Q {
+        @Override
+        Cache newCache(int capacity) {
+            return new TwoQueueCache(capacity);
+        }
+    },
+
+    /** Adaptive replacement cache, see {@link ArcCache}. */
+    ARC {
+        @Override
+        Cache newCache(int capacity) {
+            return new ArcCache(capacity);
+        }
+    };
+
+    /** The system property that selects the default policy. */
+    public static final String PROPERTY = "simpledb.bufferpool.policy";
+
+    /**
+     * @return an empty cache of the given capacity that evicts by this policy
+     */
+    abstract Cache newCache(int capacity);
+
+    /**
+     * Returns the policy with the given name, ignoring case and with "-" for
+     * "_", so that "lru-k" and "2q" name LRU_K and TWO_Q.
+     *
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static ReplacementPolicy forName(String name) {
+        String n = name.trim().toUpperCase().replace('-', '_');
+        if (n.equals("2Q")) {
+            return TWO_Q;
+        }
+        return valueOf(n);
+    }
+
+    /**
+     * @return the policy named by the {@value #PROPERTY} system property, or
+     *         LRU if it is not set
+     */
+    public static ReplacementPolicy getDefault() {
+        String name = System.getProperty(PROPERTY);
+        return name == null || name.isEmpty() ? LRU : forName(name);
+    }
+}
@@ -0,0 +1,333 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * SlottedHeapPage is the {@link HeapPageFormat#SLOTTED} page format: a
+ * HeapPage whose records are variable length, so that a string takes the
+ * bytes it needs instead of the Type.STRING_LEN + 4 bytes of a fixed slot.
+ * <p>
+ * The page starts with a header of {@link #HEADER_SIZE} bytes: the format
+ * version byte ({@link #FORMAT_VERSION}), the number of entries in the slot
+ * directory and the offset where the record area starts, both as unsigned
+ * shorts. The slot directory follows, one entry per slot holding the offset
+ * and length of the slot's record as unsigned shorts; an offset of 0 marks an
+ * empty slot. Records are packed from the end of the page towards the
+ * directory. In a record, an int takes 4 bytes and a string takes its length
+ * as an unsigned short followed by its bytes.
+ * <p>
+ * Deleting a record leaves a hole in the record area. Slot numbers, and so
+ * RecordIds, never change; when an insert does not fit in the gap between the
+ * directory and the records, the page is compacted by sliding the records
+ * together.
+ * <p>
+ * A page of zeroes, as left by extending a file, reads as an empty page.
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** The version byte that starts every slotted page. */
+    public static final byte FORMAT_VERSION = 1;
+
+    static final int HEADER_SIZE = 5;
+    static final int SLOT_SIZE = 4;
+
+    // data, the page image, is kept up to date by insertTuple and deleteTuple
+    private final ByteBuffer buf;
+    private int numSlots;
+    private int recordStart;
+    // bytes taken by the records currently on the page, and their number
+    private int liveBytes;
+    private int numRecords;
+    // the tuples handed out so far, by slot; they decode from data until
+    // materialized, which happens before their record is cleared or moved
+    private LazyTuple[] views = new LazyTuple[0];
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if data is not a slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from a buffer holding the page as laid out on
+     * disk. The buffer's position is not changed.
+     *
+     * @throws IOException if data is not a slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, Database.getCatalog().getTupleDesc(id.getTableId()), copyPage(data));
+        if (this.data.length > 0xFFFF) {
+            throw new IOException("slotted pages must be smaller than 64KB");
+        }
+        this.buf = ByteBuffer.wrap(this.data);
+
+        byte version = this.data[0];
+        numSlots = Short.toUnsignedInt(buf.getShort(1));
+        recordStart = Short.toUnsignedInt(buf.getShort(3));
+        if (version == 0 && numSlots == 0 && recordStart == 0) {
+            // a zeroed page
+            initEmpty();
+        } else if (version != FORMAT_VERSION) {
+            throw new IOException("not a slotted page: format version " + version);
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                liveBytes += recordLength(i);
+                numRecords++;
+            }
+        }
+        setBeforeImage();
+    }
+
+    private void initEmpty() {
+        data[0] = FORMAT_VERSION;
+        numSlots = 0;
+        recordStart = data.length;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        buf.putShort(1, (short) numSlots);
+        buf.putShort(3, (short) recordStart);
+    }
+
+    private int recordOffset(int slot) {
+        return Short.toUnsignedInt(buf.getShort(HEADER_SIZE + slot * SLOT_SIZE));
+    }
+
+    private int recordLength(int slot) {
+        return Short.toUnsignedInt(buf.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2));
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        buf.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a slotted page
+     */
+    static int recordSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                size += 4;
+            } else {
+                size += 2 + stringValue(t.getField(i)).length();
+            }
+        }
+        return size;
+    }
+
+    private static String stringValue(Field f) {
+        String s = ((StringField) f).getValue();
+        return s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+    }
+
+    /** Bytes free for records and directory entries, holes included. */
+    private int freeBytes() {
+        return data.length - HEADER_SIZE - numSlots * SLOT_SIZE - liveBytes;
+    }
+
+    /** Returns an empty slot of the directory, or -1 if all are used. */
+    private int findEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Slides the records to the end of the page, so that all free space lies
+     * between the slot directory and the records.
+     */
+    private void compact() {
+        for (LazyTuple view : views) {
+            if (view != null) {
+                view.materialize();
+            }
+        }
+        byte[] packed = new byte[data.length];
+        int end = data.length;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int len = recordLength(i);
+                end -= len;
+                System.arraycopy(data, recordOffset(i), packed, end, len);
+                setSlot(i, end, len);
+            }
+        }
+        int dirEnd = HEADER_SIZE + numSlots * SLOT_SIZE;
+        Arrays.fill(data, dirEnd, end, (byte) 0);
+        System.arraycopy(packed, end, data, end, data.length - end);
+        recordStart = end;
+        writeHeader();
+    }
+
+    @Override
+    HeapPageFormat getFormat() {
+        return HeapPageFormat.SLOTTED;
+    }
+
+    @Override
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * @return the data of an empty slotted page
+     */
+    public static byte[] createEmptyPageData() {
+        int len = BufferPool.getPageSize();
+        byte[] empty = new byte[len];
+        ByteBuffer b = ByteBuffer.wrap(empty);
+        b.put(0, FORMAT_VERSION);
+        b.putShort(1, (short) 0);
+        b.putShort(3, (short) len);
+        return empty;
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int need = recordSize(t);
+        if (numRecords == numSlots) {
+            need += SLOT_SIZE;
+        }
+        return need <= freeBytes();
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        assert t != null;
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("insertTuple Error,tupleDesc mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("insertTuple Error,no room for new tuple");
+        }
+        int slot = numRecords < numSlots ? findEmptySlot() : numSlots;
+        int len = recordSize(t);
+        int dirEnd = HEADER_SIZE + (slot == numSlots ? numSlots + 1 : numSlots) * SLOT_SIZE;
+        if (recordStart - len < dirEnd) {
+            compact();
+        }
+        if (slot == numSlots) {
+            numSlots++;
+        }
+
+        int offset = recordStart - len;
+        buf.position(offset);
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                buf.putInt(((IntField) f).getValue());
+            } else {
+                String s = stringValue(f);
+                buf.putShort((short) s.length());
+                for (int c = 0; c < s.length(); c++) {
+                    buf.put((byte) s.charAt(c));
+                }
+            }
+        }
+        setSlot(slot, offset, len);
+        recordStart = offset;
+        writeHeader();
+        liveBytes += len;
+        numRecords++;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        assert t != null;
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("deleteTuple Error,record is not on this page");
+        }
+        int slot = rid.getTupleNumber();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("deleteTuple Error,record not found");
+        }
+        if (slot < views.length && views[slot] != null) {
+            views[slot].materialize();
+            views[slot] = null;
+        }
+        int offset = recordOffset(slot);
+        int len = recordLength(slot);
+        Arrays.fill(data, offset, offset + len, (byte) 0);
+        if (offset == recordStart) {
+            recordStart += len;
+        }
+        setSlot(slot, 0, 0);
+        liveBytes -= len;
+        numRecords--;
+        // trailing empty directory entries are given back to the free space
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1)) {
+            numSlots--;
+        }
+        if (numSlots == 0) {
+            recordStart = data.length;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Returns an estimate of the number of tuples that still fit on this page,
+     * based on the average size of the records on the page, or on
+     * {@link TupleDesc#getSize} if the page is empty.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int avg = numRecords > 0 ? (liveBytes + numRecords - 1) / numRecords : td.getSize();
+        int free = freeBytes();
+        int reusable = numSlots - numRecords;
+        int fit = 0;
+        while (free >= avg + (fit < reusable ? 0 : SLOT_SIZE)) {
+            free -= avg + (fit < reusable ? 0 : SLOT_SIZE);
+            fit++;
+        }
+        return fit;
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && recordOffset(i) != 0;
+    }
+
+    @Override
+    Tuple tupleAt(int slot) {
+        if (slot >= views.length) {
+            views = Arrays.copyOf(views, numSlots);
+        }
+        if (views[slot] == null) {
+            views[slot] = new LazyTuple(td, buf, recordOffset(slot), new RecordId(pid, slot));
+        }
+        return views[slot];
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        List<Tuple> result = new ArrayList<>(numRecords);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                result.add(tupleAt(i));
+            }
+        }
+        return result.iterator();
+    }
+}
@@ -160,8 +160,12 @@ public class TupleDesc implements Serializable {
     }
 
     /**
-     * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     * @return The size (in bytes) of tuples corresponding to this TupleDesc
+     *         in fixed-width layouts (HeapPage, B+ tree pages), where every
+     *         string is padded to Type.STRING_LEN. Variable-length layouts
+     *         such as {@link SlottedHeapPage} store most tuples in fewer
+     *         bytes, so for them this is an upper bound and only a size
+     *         estimate.
      */
     public int getSize() {
         // some code goes here
@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The {@link ReplacementPolicy#TWO_Q} cache (Johnson and Shasha), an
+ * approximation of LRU-2 whose accesses are O(1). A page read for the first time goes to a FIFO
+ * queue, A1in, that holds a quarter of the cache; accesses while it is there
+ * do not count, as they are usually part of the same burst (a scan, or the
+ * tuples of one page). When it falls out of A1in its id is remembered in a
+ * second FIFO queue, A1out, of ids only. A page that is read again while its
+ * id is in A1out has proved to be used over time and goes to Am, an LRU list
+ * that holds the rest of the cache.
+ * <p>
+ * Evictions take from A1in while it is over its share, and from Am
+ * otherwise, so a scan only ever displaces pages of A1in. They walk the queue
+ * past the pages canEvict rejects, one step per pinned or unevictable dirty
+ * page in their way.
+ *
+ * @Threadsafe
+ */
+class TwoQueueCache implements Cache {
+
+    private int capacity;
+    private int maxIn;
+    private int maxOut;
+    // oldest first
+    private final LinkedHashMap<PageId, Page> in;
+    // least recently used first
+    private final LinkedHashMap<PageId, Page> main;
+    // ids of pages that fell out of in, oldest first
+    private final LinkedHashMap<PageId, Boolean> out;
+
+    TwoQueueCache(int capacity) {
+        setShares(capacity);
+        this.in = new LinkedHashMap<>();
+        this.main = new LinkedHashMap<>(capacity * 4 / 3 + 1);
+        this.out = new LinkedHashMap<PageId, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > maxOut;
+            }
+        };
+    }
+
+    private void setShares(int capacity) {
+        this.capacity = capacity;
+        this.maxIn = Math.max(1, capacity / 4);
+        this.maxOut = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public synchronized boolean containsKey(PageId pid) {
+        return in.containsKey(pid) || main.containsKey(pid);
+    }
+
+    @Override
+    public synchronized Page get(PageId pid) {
+        Page pg = main.remove(pid);
+        if (pg != null) {
+            main.put(pid, pg);
+            return pg;
+        }
+        return in.get(pid);
+    }
+
+    @Override
+    public synchronized Page peek(PageId pid) {
+        Page pg = main.get(pid);
+        return pg != null ? pg : in.get(pid);
+    }
+
+    @Override
+    public synchronized void put(PageId pid, Page pg) {
+        if (main.containsKey(pid)) {
+            main.put(pid, pg);
+        } else if (in.containsKey(pid)) {
+            // replacing the value keeps the page's place in the queue
+            in.put(pid, pg);
+        } else if (size() >= capacity) {
+            throw new IllegalStateException("cache full");
+        } else if (out.remove(pid) != null) {
+            main.put(pid, pg);
+        } else {
+            in.put(pid, pg);
+        }
+    }
+
+    /**
+     * Accesses to a page of A1in do not count anyway.
+     */
+    @Override
+    public synchronized void prefetch(PageId pid, Page pg) {
+        put(pid, pg);
+    }
+
+    @Override
+    public synchronized Page remove(PageId pid) {
+        Page pg = main.remove(pid);
+        return pg != null ? pg : in.remove(pid);
+    }
+
+    @Override
+    public synchronized Page evictPage(Predicate<Page> canEvict) {
+        if (in.size() <= maxIn) {
+            Page pg = evictFrom(main, canEvict);
+            if (pg != null) {
+                return pg;
+            }
+        }
+        Page pg = evictFrom(in, canEvict);
+        if (pg != null) {
+            out.put(pg.getId(), Boolean.TRUE);
+            return pg;
+        }
+        return evictFrom(main, canEvict);
+    }
+
+    private static Page evictFrom(LinkedHashMap<PageId, Page> queue, Predicate<Page> canEvict) {
+        Iterator<Page> it = queue.values().iterator();
+        while (it.hasNext()) {
+            Page pg = it.next();
+            if (canEvict.test(pg)) {
+                it.remove();
+                return pg;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return in.size() + main.size();
+    }
+
+    @Override
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * A1in and A1out get their shares of the new capacity; A1in gets back to
+     * its share as pages are evicted.
+     */
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (size() > capacity) {
+            throw new IllegalArgumentException("cache holds more than " + capacity + " pages");
+        }
+        setShares(capacity);
+        Iterator<PageId> it = out.keySet().iterator();
+        while (out.size() > maxOut) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized List<PageId> pageIds() {
+        List<PageId> ids = new ArrayList<>(in.keySet());
+        ids.addAll(main.keySet());
+        return ids;
+    }
+}
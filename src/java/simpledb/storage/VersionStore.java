@@ -0,0 +1,104 @@
+package simpledb.storage;
+
+import simpledb.transaction.TimestampOracle;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the old committed versions of pages that open
+ * snapshots may still read (see {@link BufferPool#beginSnapshot}). Each page
+ * has a chain of versions, oldest first. A version is the committed image of
+ * the page that a commit replaced, and is valid until the timestamp of that
+ * commit: a snapshot taken before the commit reads it, unless an older
+ * version of the chain is valid at the snapshot too.
+ * <p>
+ * Chains are replaced as a whole when they change, so lookups take no lock.
+ * Versions outlive the pool's copy of their page, since snapshots may read a
+ * page the pool evicted after later commits were written to disk.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+
+    private static final class Version {
+        final Page image;
+        final long validUntil;
+
+        Version(Page image, long validUntil) {
+            this.image = image;
+            this.validUntil = validUntil;
+        }
+    }
+
+    private static final Version[] EMPTY = new Version[0];
+
+    private final ConcurrentHashMap<PageId, Version[]> chains = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the committed image of a page that a commit replaces. Commits of
+     * the same page that are in progress together may add their versions out
+     * of timestamp order; a version then stays valid as long as the one
+     * before it, which is right, since no snapshot is taken between them.
+     *
+     * @param image the image the commit replaces, which must own its bytes
+     *        (see {@link HeapPage#getBeforeImage}): the pool's page may be in
+     *        an arena frame or a mapping of the file, both of which change
+     *        under a snapshot that reads the version later
+     * @param commitTs the timestamp of the commit
+     */
+    void add(PageId pid, Page image, long commitTs) {
+        chains.compute(pid, (p, chain) -> {
+            chain = chain == null ? EMPTY : chain;
+            long validUntil = chain.length == 0
+                    ? commitTs : Math.max(commitTs, chain[chain.length - 1].validUntil);
+            Version[] longer = Arrays.copyOf(chain, chain.length + 1);
+            longer[chain.length] = new Version(image, validUntil);
+            return longer;
+        });
+    }
+
+    /**
+     * @return the version of a page that a snapshot taken at readTs reads,
+     *         or null if the snapshot reads the page's current committed image
+     */
+    Page find(PageId pid, long readTs) {
+        Version[] chain = chains.get(pid);
+        if (chain != null) {
+            for (Version v : chain) {
+                if (v.validUntil > readTs) {
+                    return v.image;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the versions no open snapshot reads. The oldest snapshot is
+     * looked up again for each chain, while the chain cannot change, since a
+     * snapshot opened meanwhile may read the versions added after it.
+     */
+    void prune(TimestampOracle oracle) {
+        for (PageId pid : chains.keySet()) {
+            chains.computeIfPresent(pid, (p, chain) -> {
+                long oldestReadTs = oracle.oldestSnapshot();
+                int dead = 0;
+                while (dead < chain.length && chain[dead].validUntil <= oldestReadTs) {
+                    dead++;
+                }
+                return dead == chain.length ? null
+                        : dead == 0 ? chain : Arrays.copyOfRange(chain, dead, chain.length);
+            });
+        }
+    }
+
+    /** @return the number of versions kept */
+    int size() {
+        int n = 0;
+        for (Version[] chain : chains.values()) {
+            n += chain.length;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,13 @@
+package simpledb.transaction;
+
+/**
+ * Exception that is thrown when a transaction is aborted to break a
+ * deadlock: it was waiting for a lock in a cycle of transactions that all
+ * wait for each other, and was the youngest of them.
+ */
+public class DeadlockException extends TransactionAbortedException {
+    private static final long serialVersionUID = 1L;
+
+    public DeadlockException() {
+    }
+}
@@ -1,5 +1,733 @@
 package simpledb.transaction;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+
+/**
+ * The locks of a {@link simpledb.storage.BufferPool}, for strict two-phase
+ * locking: a transaction takes a shared lock on what it reads and an
+ * exclusive lock on what it writes, and keeps its locks until it completes.
+ * <p>
+ * Locks are taken on tables, pages and records, in the modes of
+ * {@link LockMode}. A transaction locks a page with {@link
+ * #acquire(TransactionId, PageId, boolean)}, which first takes an intention
+ * lock on the page's table, or a single record with {@link
+ * #acquire(TransactionId, RecordId, boolean)}, which first takes intention
+ * locks on the record's table and page. So transactions that write different
+ * records of a page can hold their locks at once, while a transaction that
+ * locks the whole page waits for them. A lock on a table or page covers the
+ * locks below it, which are then not taken.
+ * <p>
+ * Record locks are escalated to keep the number of locks a transaction holds
+ * bounded: once it holds more record locks on a page than the page threshold,
+ * set by the system property {@value #PAGE_ESCALATION_PROPERTY}, it locks the
+ * whole page instead, exclusively if any of those locks is exclusive, and
+ * gives up the record locks the page lock covers. The same goes for a table
+ * once the transaction holds more record locks in it than the table
+ * threshold, set by {@value #TABLE_ESCALATION_PROPERTY}; the locks it holds
+ * on the table's pages are given up as well.
+ * <p>
+ * Everything locked has a FIFO queue of the requests waiting for it. A
+ * request is granted when it is compatible with the locks other transactions
+ * hold and no request is queued ahead of it, so a stream of readers cannot
+ * starve a writer. A transaction that already holds a lock upgrades it at
+ * once if the new mode is compatible with the other holders. An upgrade that
+ * has to wait goes to the front of the queue, since its transaction already
+ * holds the lock.
+ * <p>
+ * A waiting request sleeps on a condition of its own, and is signalled when
+ * it is granted. The lock table is split into stripes by what is locked,
+ * each with its own lock, so that transactions locking different things
+ * seldom contend.
+ * <p>
+ * Deadlocks are found with a waits-for graph: every waiting request knows
+ * the transactions it waits for, the holders of conflicting locks and the
+ * requests queued ahead of it, since the queue is granted in order. A
+ * deadlock is a cycle of the graph, and the request that closes it is the
+ * one that just started waiting, so a request looks for a cycle through its
+ * transaction when it blocks. If it finds one, it aborts the youngest
+ * transaction of the cycle, itself or another waiter, with a {@link
+ * DeadlockException}, and looks again, since a request may close several
+ * cycles at once.
+ * <p>
+ * As a backstop, a request that waits longer than the lock timeout, set in
+ * milliseconds by the system property {@value #TIMEOUT_PROPERTY}, aborts
+ * its transaction. The timeout of each wait is stretched by a random amount
+ * of up to the timeout.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
 
+    /** System property that sets the lock timeout, in milliseconds. */
+    public static final String TIMEOUT_PROPERTY = "simpledb.lock.timeout";
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /** System property that sets the most record locks a transaction holds on a page before it locks the page. */
+    public static final String PAGE_ESCALATION_PROPERTY = "simpledb.lock.escalation.page";
+    private static final int DEFAULT_PAGE_ESCALATION = 64;
+    /** System property that sets the most record locks a transaction holds in a table before it locks the table. */
+    public static final String TABLE_ESCALATION_PROPERTY = "simpledb.lock.escalation.table";
+    private static final int DEFAULT_TABLE_ESCALATION = 1024;
+
+    private static final int STRIPES = 64;
+
+    /** What is locked to lock a whole table. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey k && k.tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return tableId;
+        }
+    }
+
+    /** A request waiting in the queue of a lock. */
+    private static final class Request {
+        final TransactionId tid;
+        final Object key;
+        final LockMode mode;
+        final Condition granted;
+        // guarded by the lock of the key's stripe
+        boolean done;
+        boolean aborted;
+        // the transactions the request waits for, guarded by the graph's lock
+        Set<TransactionId> blockers = new HashSet<>();
+        // picked to break a deadlock, so no longer part of the graph; guarded by the graph's lock
+        boolean victim;
+
+        Request(TransactionId tid, Object key, LockMode mode, Condition granted) {
+            this.tid = tid;
+            this.key = key;
+            this.mode = mode;
+            this.granted = granted;
+        }
+    }
+
+    /** The lock of a table, page or record: its holders and the requests waiting for it. */
+    private static final class ResourceLock {
+        final Map<TransactionId, LockMode> holders = new HashMap<>(4);
+        final ArrayDeque<Request> waiters = new ArrayDeque<>();
+
+        boolean isFree() {
+            return holders.isEmpty() && waiters.isEmpty();
+        }
+
+        boolean canGrant(TransactionId tid, LockMode mode) {
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getValue().isCompatibleWith(mode) && !h.getKey().equals(tid)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<Object, ResourceLock> locks = new HashMap<>();
+    }
+
+    /**
+     * The locks a transaction holds, with its record locks counted by page
+     * and by table. Taken after a stripe's lock, never before.
+     */
+    private static final class Held {
+        final Map<Object, LockMode> modes = new HashMap<>();
+        final Map<PageId, Integer> pageRecords = new HashMap<>();
+        final Map<Integer, Integer> tableRecords = new HashMap<>();
+
+        synchronized LockMode get(Object key) {
+            return modes.get(key);
+        }
+
+        synchronized void put(Object key, LockMode mode) {
+            if (modes.put(key, mode) == null && key instanceof RecordId rid) {
+                count(rid, 1);
+            }
+        }
+
+        synchronized void remove(Object key) {
+            if (modes.remove(key) != null && key instanceof RecordId rid) {
+                count(rid, -1);
+            }
+        }
+
+        private void count(RecordId rid, int delta) {
+            PageId pid = rid.getPageId();
+            pageRecords.merge(pid, delta, (a, b) -> a + b == 0 ? null : a + b);
+            tableRecords.merge(pid.getTableId(), delta, (a, b) -> a + b == 0 ? null : a + b);
+        }
+
+        synchronized Map<Object, LockMode> copy() {
+            return new HashMap<>(modes);
+        }
+    }
+
+    private final Stripe[] stripes;
+    /** The locks of each transaction that holds some. */
+    private final Map<TransactionId, Held> held = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+    private final int pageEscalation;
+    private final int tableEscalation;
+
+    /**
+     * The waits-for graph: the request each transaction waits on, whose
+     * blockers are the transaction's edges. Taken after a stripe's lock,
+     * never before.
+     */
+    private final Object graphLock = new Object();
+    private final Map<TransactionId, Request> waiting = new HashMap<>();
+
+    public LockManager() {
+        this(Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * @param timeoutMillis how long a request waits before it aborts its
+     *        transaction, before the random stretch
+     */
+    public LockManager(long timeoutMillis) {
+        this(timeoutMillis, Integer.getInteger(PAGE_ESCALATION_PROPERTY, DEFAULT_PAGE_ESCALATION),
+                Integer.getInteger(TABLE_ESCALATION_PROPERTY, DEFAULT_TABLE_ESCALATION));
+    }
+
+    /**
+     * @param timeoutMillis how long a request waits before it aborts its
+     *        transaction, before the random stretch
+     * @param pageEscalation the most record locks a transaction holds on a
+     *        page before it locks the whole page
+     * @param tableEscalation the most record locks a transaction holds in a
+     *        table before it locks the whole table
+     */
+    public LockManager(long timeoutMillis, int pageEscalation, int tableEscalation) {
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.pageEscalation = pageEscalation;
+        this.tableEscalation = tableEscalation;
+    }
+
+    private Stripe stripeOf(Object key) {
+        long h = key.hashCode() * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 32) & (STRIPES - 1)];
+    }
+
+    private Held heldBy(TransactionId tid) {
+        return held.computeIfAbsent(tid, t -> new Held());
+    }
+
+    /**
+     * @return true if holding a table or page in mode coarse lets a
+     *         transaction do what mode asks for on anything below it
+     */
+    private static boolean coversBelow(LockMode coarse, LockMode mode) {
+        if (coarse == null) {
+            return false;
+        }
+        return coarse == LockMode.X || (coarse.covers(LockMode.S) && mode.intention() == LockMode.IS);
+    }
+
+    private static int tableOf(Object key) {
+        if (key instanceof RecordId rid) {
+            return rid.getPageId().getTableId();
+        }
+        return key instanceof PageId pid ? pid.getTableId() : ((TableKey) key).tableId;
+    }
+
+    /**
+     * Takes a lock on a page for a transaction, waiting as long as the lock is
+     * held in a conflicting mode by another transaction. A transaction that
+     * already holds a lock on the page keeps it; a shared lock is upgraded if
+     * exclusive is true.
+     *
+     * @param tid the transaction taking the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if the lock timeout expired first,
+     *         the transaction was picked to break a deadlock, or the thread
+     *         was interrupted while it waited
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        acquire(tid, pid, exclusive ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Takes a lock on a page in the given mode, after the matching intention
+     * lock on its table, unless a lock the transaction holds on the table
+     * covers it. The intention modes are for transactions that go on to lock
+     * records of the page. A lock the transaction already holds on the page
+     * is upgraded to cover mode.
+     *
+     * @see #acquire(TransactionId, PageId, boolean)
+     */
+    public void acquire(TransactionId tid, PageId pid, LockMode mode)
+            throws TransactionAbortedException {
+        TableKey table = new TableKey(pid.getTableId());
+        if (coversBelow(heldBy(tid).get(table), mode)) {
+            return;
+        }
+        lock(tid, table, mode.intention());
+        lock(tid, pid, mode);
+    }
+
+    /**
+     * Takes a lock on a record, after intention locks on its table and page,
+     * unless a lock the transaction holds on the page or table covers it.
+     * Then escalates the transaction's record locks on the page or table if
+     * it holds more than the thresholds allow.
+     *
+     * @param tid the transaction taking the lock
+     * @param rid the record to lock
+     * @param exclusive true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException as {@link #acquire(TransactionId,
+     *         PageId, boolean)} does
+     */
+    public void acquire(TransactionId tid, RecordId rid, boolean exclusive)
+            throws TransactionAbortedException {
+        LockMode mode = exclusive ? LockMode.X : LockMode.S;
+        PageId pid = rid.getPageId();
+        TableKey table = new TableKey(pid.getTableId());
+        Held h = heldBy(tid);
+        if (coversBelow(h.get(table), mode) || coversBelow(h.get(pid), mode)) {
+            return;
+        }
+        lock(tid, table, mode.intention());
+        lock(tid, pid, mode.intention());
+        lock(tid, rid, mode);
+
+        int onPage;
+        int inTable;
+        synchronized (h) {
+            onPage = h.pageRecords.getOrDefault(pid, 0);
+            inTable = h.tableRecords.getOrDefault(table.tableId, 0);
+        }
+        if (inTable > tableEscalation) {
+            escalate(tid, h, table, k -> !(k instanceof TableKey) && tableOf(k) == table.tableId);
+        } else if (onPage > pageEscalation) {
+            escalate(tid, h, pid, k -> k instanceof RecordId r && r.getPageId().equals(pid));
+        }
+    }
+
+    /**
+     * Locks a table or page as a whole in place of the transaction's locks
+     * below it, those selected by below: exclusively if any of them is for
+     * writing, shared otherwise. The locks below that the new lock covers
+     * are then released.
+     */
+    private void escalate(TransactionId tid, Held h, Object key, Predicate<Object> below)
+            throws TransactionAbortedException {
+        Map<Object, LockMode> modes = h.copy();
+        LockMode mode = LockMode.S;
+        for (Map.Entry<Object, LockMode> e : modes.entrySet()) {
+            if (below.test(e.getKey()) && e.getValue().intention() == LockMode.IX) {
+                mode = LockMode.X;
+            }
+        }
+        if (key instanceof PageId pid) {
+            acquire(tid, pid, mode);
+        } else {
+            lock(tid, key, mode);
+        }
+        LockMode coarse = h.get(key);
+        for (Map.Entry<Object, LockMode> e : modes.entrySet()) {
+            if (below.test(e.getKey()) && coversBelow(coarse, e.getValue())) {
+                h.remove(e.getKey());
+                unlock(tid, e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Takes the lock of one table, page or record in the given mode, joined
+     * with the mode the transaction already holds it in.
+     */
+    private void lock(TransactionId tid, Object key, LockMode mode)
+            throws TransactionAbortedException {
+        LockMode have = heldBy(tid).get(key);
+        if (have != null && have.covers(mode)) {
+            return;
+        }
+        Stripe s = stripeOf(key);
+        s.lock.lock();
+        try {
+            ResourceLock l = s.locks.computeIfAbsent(key, k -> new ResourceLock());
+            have = l.holders.get(tid);
+            LockMode target = have == null ? mode : have.join(mode);
+            if (target == have) {
+                return;
+            }
+            if (l.canGrant(tid, target) && (have != null || l.waiters.isEmpty())) {
+                grant(l, tid, key, target);
+                if (!l.waiters.isEmpty()) {
+                    // the upgraded lock may block more of them
+                    synchronized (graphLock) {
+                        updateBlockers(l);
+                    }
+                }
+                return;
+            }
+            Request req = new Request(tid, key, target, s.lock.newCondition());
+            if (have != null) {
+                l.waiters.addFirst(req);
+            } else {
+                l.waiters.addLast(req);
+            }
+            await(s, l, req);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a queued request to be granted, after breaking the deadlock
+     * it may close. Called holding the stripe's lock.
+     */
+    private void await(Stripe s, ResourceLock l, Request req)
+            throws TransactionAbortedException {
+        long left = timeoutNanos + ThreadLocalRandom.current().nextLong(timeoutNanos + 1);
+        try {
+            List<Request> victims = new ArrayList<>();
+            synchronized (graphLock) {
+                waiting.put(req.tid, req);
+                updateBlockers(l);
+                // the request may close more than one cycle
+                Request victim;
+                while ((victim = findVictim(req.tid)) != null) {
+                    if (victim == req) {
+                        // its abort breaks the cycles found before as well
+                        for (Request v : victims) {
+                            v.victim = false;
+                        }
+                        throw new DeadlockException();
+                    }
+                    victim.victim = true;
+                    victims.add(victim);
+                }
+            }
+            if (!victims.isEmpty()) {
+                // the victims may wait in other stripes, whose locks must not
+                // be taken while holding this one
+                s.lock.unlock();
+                try {
+                    for (Request victim : victims) {
+                        abort(victim);
+                    }
+                } finally {
+                    s.lock.lock();
+                }
+            }
+            while (!req.done) {
+                if (req.aborted) {
+                    throw new DeadlockException();
+                }
+                if (left <= 0) {
+                    throw new TransactionAbortedException();
+                }
+                left = req.granted.awaitNanos(left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            if (!req.done) {
+                // requests queued behind this one may now go ahead
+                l.waiters.remove(req);
+                synchronized (graphLock) {
+                    waiting.remove(req.tid, req);
+                }
+                grantWaiters(l, req.key);
+                if (l.isFree()) {
+                    s.locks.remove(req.key);
+                }
+            }
+        }
+    }
+
+    /** Wakes up a waiting request to abort its transaction, unless it was granted. */
+    private void abort(Request victim) {
+        Stripe s = stripeOf(victim.key);
+        s.lock.lock();
+        try {
+            if (!victim.done) {
+                victim.aborted = true;
+                victim.granted.signal();
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the blockers of the requests waiting for a lock. Called holding
+     * the locks of the lock's stripe and of the graph.
+     */
+    private static void updateBlockers(ResourceLock l) {
+        List<Request> ahead = new ArrayList<>(l.waiters.size());
+        for (Request req : l.waiters) {
+            Set<TransactionId> blockers = new HashSet<>();
+            for (Map.Entry<TransactionId, LockMode> h : l.holders.entrySet()) {
+                if (!h.getValue().isCompatibleWith(req.mode)) {
+                    blockers.add(h.getKey());
+                }
+            }
+            for (Request a : ahead) {
+                blockers.add(a.tid);
+            }
+            blockers.remove(req.tid);
+            req.blockers = blockers;
+            ahead.add(req);
+        }
+    }
+
+    /**
+     * Looks for a cycle of the waits-for graph through a transaction,
+     * leaving out the requests already picked as victims, which are about to
+     * abort. Called holding the graph's lock.
+     *
+     * @return the request of the youngest transaction of the cycle, or null
+     *         if there is no cycle
+     */
+    private Request findVictim(TransactionId tid) {
+        // depth-first search, keeping the path from tid
+        Deque<Iterator<TransactionId>> stack = new ArrayDeque<>();
+        List<TransactionId> path = new ArrayList<>();
+        Set<TransactionId> visited = new HashSet<>();
+        path.add(tid);
+        visited.add(tid);
+        stack.push(waiting.get(tid).blockers.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<TransactionId> next = stack.peek();
+            if (!next.hasNext()) {
+                stack.pop();
+                path.remove(path.size() - 1);
+                continue;
+            }
+            TransactionId blocker = next.next();
+            if (blocker.equals(tid)) {
+                TransactionId youngest = tid;
+                for (TransactionId t : path) {
+                    if (t.getId() > youngest.getId()) {
+                        youngest = t;
+                    }
+                }
+                return waiting.get(youngest);
+            }
+            Request req = waiting.get(blocker);
+            if (req != null && !req.victim && visited.add(blocker)) {
+                path.add(blocker);
+                stack.push(req.blockers.iterator());
+            }
+        }
+        return null;
+    }
+
+    private void grant(ResourceLock l, TransactionId tid, Object key, LockMode mode) {
+        LockMode joined = l.holders.merge(tid, mode, LockMode::join);
+        heldBy(tid).put(key, joined);
+    }
+
+    /**
+     * Grants the requests at the head of the queue that can be granted, and
+     * updates the blockers of the rest.
+     */
+    private void grantWaiters(ResourceLock l, Object key) {
+        synchronized (graphLock) {
+            Request req;
+            while ((req = l.waiters.peekFirst()) != null && l.canGrant(req.tid, req.mode)) {
+                l.waiters.pollFirst();
+                waiting.remove(req.tid, req);
+                grant(l, req.tid, key, req.mode);
+                req.done = true;
+                req.granted.signal();
+            }
+            updateBlockers(l);
+        }
+    }
+
+    /**
+     * Releases the lock a transaction holds on a page, if it holds one,
+     * along with its locks on the page's records.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return;
+        }
+        for (Object key : h.copy().keySet()) {
+            if (key.equals(pid) || (key instanceof RecordId rid && rid.getPageId().equals(pid))) {
+                h.remove(key);
+                unlock(tid, key);
+            }
+        }
+    }
+
+    /**
+     * Releases every lock a transaction holds, e.g. because it completed:
+     * record locks first, table locks last.
+     */
+    public void releaseAll(TransactionId tid) {
+        Held h = held.remove(tid);
+        if (h == null) {
+            return;
+        }
+        List<Object> keys = new ArrayList<>(h.copy().keySet());
+        keys.sort((a, b) -> Integer.compare(level(a), level(b)));
+        for (Object key : keys) {
+            unlock(tid, key);
+        }
+    }
+
+    private static int level(Object key) {
+        return key instanceof RecordId ? 0 : key instanceof PageId ? 1 : 2;
+    }
+
+    private void unlock(TransactionId tid, Object key) {
+        Stripe s = stripeOf(key);
+        s.lock.lock();
+        try {
+            ResourceLock l = s.locks.get(key);
+            if (l == null || l.holders.remove(tid) == null) {
+                return;
+            }
+            grantWaiters(l, key);
+            if (l.isFree()) {
+                s.locks.remove(key);
+            }
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** @return true if the transaction holds a lock on the page, or one on its table that covers reading it */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Held h = held.get(tid);
+        return h != null && (h.get(pid) != null || coversBelow(h.get(new TableKey(pid.getTableId())), LockMode.S));
+    }
+
+    /**
+     * @return true if the locks the transaction holds on the page or its
+     *         table let it read the whole page, or write it if exclusive
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid, boolean exclusive) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return false;
+        }
+        LockMode mode = exclusive ? LockMode.X : LockMode.S;
+        LockMode onPage = h.get(pid);
+        return (onPage != null && onPage.covers(mode)) || coversBelow(h.get(new TableKey(pid.getTableId())), mode);
+    }
+
+    /** @return true if the transaction holds a lock on the record, or one on its page or table that covers reading it */
+    public boolean holdsLock(TransactionId tid, RecordId rid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return false;
+        }
+        PageId pid = rid.getPageId();
+        return h.get(rid) != null || coversBelow(h.get(pid), LockMode.S)
+                || coversBelow(h.get(new TableKey(pid.getTableId())), LockMode.S);
+    }
+
+    /**
+     * @return true if some transaction holds a lock that lets it write the
+     *         page or records of it: one on the page other than S or IS, or
+     *         an exclusive one on its table
+     */
+    public boolean isWriteLocked(PageId pid) {
+        return holdsWrite(pid, false) || holdsWrite(new TableKey(pid.getTableId()), true);
+    }
+
+    private boolean holdsWrite(Object key, boolean exclusive) {
+        Stripe s = stripeOf(key);
+        s.lock.lock();
+        try {
+            ResourceLock l = s.locks.get(key);
+            if (l != null) {
+                for (LockMode mode : l.holders.values()) {
+                    if (exclusive ? mode == LockMode.X : mode.intention() == LockMode.IX) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    /** @return the mode of the transaction's lock on the page itself, or null if it holds none */
+    public LockMode getLockMode(TransactionId tid, PageId pid) {
+        Held h = held.get(tid);
+        return h == null ? null : h.get(pid);
+    }
+
+    /** @return the mode of the transaction's lock on the record itself, or null if it holds none */
+    public LockMode getLockMode(TransactionId tid, RecordId rid) {
+        Held h = held.get(tid);
+        return h == null ? null : h.get(rid);
+    }
+
+    /** @return the mode of the transaction's lock on the table, or null if it holds none */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        Held h = held.get(tid);
+        return h == null ? null : h.get(new TableKey(tableId));
+    }
+
+    /** @return the pages the transaction holds locks on, as a copy */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = new HashSet<>();
+        Held h = held.get(tid);
+        if (h != null) {
+            for (Object key : h.copy().keySet()) {
+                if (key instanceof PageId pid) {
+                    pids.add(pid);
+                }
+            }
+        }
+        return pids;
+    }
+
+    /** @return the records the transaction holds locks on, with their modes, as a copy */
+    public Map<RecordId, LockMode> getLockedRecords(TransactionId tid) {
+        Map<RecordId, LockMode> records = new HashMap<>();
+        Held h = held.get(tid);
+        if (h != null) {
+            for (Map.Entry<Object, LockMode> e : h.copy().entrySet()) {
+                if (e.getKey() instanceof RecordId rid) {
+                    records.put(rid, e.getValue());
+                }
+            }
+        }
+        return records;
+    }
 }
@@ -0,0 +1,51 @@
+package simpledb.transaction;
+
+/**
+ * The modes of the locks of a {@link LockManager}. Tables, pages and records
+ * form a hierarchy: a shared (S) or exclusive (X) lock on a table or page
+ * covers everything below it, and a transaction that locks something below
+ * a table or page first takes an intention lock on it, intention shared (IS)
+ * to read and intention exclusive (IX) to write. SIX is S and IX at once:
+ * the holder reads the whole of it and writes some of what is below.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    private static final LockMode[][] JOIN = {
+            //         IS   IX   S    SIX  X
+            /* IS  */ {IS,  IX,  S,   SIX, X},
+            /* IX  */ {IX,  IX,  SIX, SIX, X},
+            /* S   */ {S,   SIX, S,   SIX, X},
+            /* SIX */ {SIX, SIX, SIX, SIX, X},
+            /* X   */ {X,   X,   X,   X,   X},
+    };
+
+    /** @return true if two transactions may hold this mode and other at once */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return the weakest mode that grants both this mode and other */
+    public LockMode join(LockMode other) {
+        return JOIN[ordinal()][other.ordinal()];
+    }
+
+    /** @return true if holding this mode grants everything other does */
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+
+    /** @return the intention mode to take on the parents of what is locked in this mode */
+    public LockMode intention() {
+        return this == IS || this == S ? IS : IX;
+    }
+}
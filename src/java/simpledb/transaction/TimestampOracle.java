@@ -0,0 +1,80 @@
+package simpledb.transaction;
+
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * TimestampOracle hands out the commit timestamps of writing transactions
+ * and the read timestamps of snapshots, and keeps track of the snapshots in
+ * use. A snapshot taken at read timestamp r sees the commits with a
+ * timestamp of at most r, and none of the others.
+ * <p>
+ * A commit takes effect page by page, so a snapshot must not be taken while
+ * one is in progress: commits run between {@link #beginCommit} and
+ * {@link #endCommit}, and {@link #openSnapshot} waits for the commits in
+ * progress to end. Commits do not wait for each other. Waiting snapshots go
+ * ahead of the commits that begin after them, so a stream of commits does
+ * not hold snapshots off.
+ *
+ * @Threadsafe
+ */
+public class TimestampOracle {
+
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock(true);
+    /** The timestamp of the last commit to begin. Guarded by commitLock. */
+    private long clock;
+    /** The read timestamps of the open snapshots, with the number of snapshots at each. Guarded by this. */
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    /**
+     * Begins a commit, which must be ended with {@link #endCommit}, by the
+     * same thread.
+     *
+     * @return the commit timestamp, later than those of the commits begun before
+     */
+    public long beginCommit() {
+        commitLock.readLock().lock();
+        synchronized (this) {
+            return ++clock;
+        }
+    }
+
+    /** Ends a commit begun with {@link #beginCommit}. */
+    public void endCommit() {
+        commitLock.readLock().unlock();
+    }
+
+    /**
+     * Opens a snapshot of the commits ended so far. Waits for the commits in
+     * progress to end. The snapshot must be closed with
+     * {@link #closeSnapshot}.
+     *
+     * @return the read timestamp of the snapshot
+     */
+    public long openSnapshot() {
+        commitLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                snapshots.merge(clock, 1, Integer::sum);
+                return clock;
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /** Closes a snapshot opened with {@link #openSnapshot}. */
+    public synchronized void closeSnapshot(long readTs) {
+        snapshots.computeIfPresent(readTs, (ts, n) -> n == 1 ? null : n - 1);
+    }
+
+    /** @return true if a snapshot is open */
+    public synchronized boolean hasSnapshots() {
+        return !snapshots.isEmpty();
+    }
+
+    /** @return the read timestamp of the oldest open snapshot, Long.MAX_VALUE if none is open */
+    public synchronized long oldestSnapshot() {
+        return snapshots.isEmpty() ? Long.MAX_VALUE : snapshots.firstKey();
+    }
+}
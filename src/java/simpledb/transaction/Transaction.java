@@ -12,6 +12,7 @@ import java.io.*;
 public class Transaction {
     private final TransactionId tid;
     volatile boolean started = false;
+    private volatile boolean readOnly = false;
 
     public Transaction() {
         tid = new TransactionId();
@@ -27,13 +28,46 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only transaction, which reads
+     * a snapshot of the database taken now and takes no locks (see
+     * {@link simpledb.storage.BufferPool#beginSnapshot}). It writes nothing
+     * to the log.
+     */
+    public void startReadOnly() {
+        started = true;
+        readOnly = true;
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
+    /**
+     * Start the transaction running optimistically: it takes no locks until
+     * it commits, when it is validated, and aborts if another transaction
+     * committed a change to a page it used in the meantime (see
+     * {@link simpledb.storage.BufferPool#beginOptimistic}).
+     */
+    public void startOptimistic() {
+        start();
+        Database.getBufferPool().beginOptimistic(tid);
+    }
+
+    /** Return true if the transaction was started read-only */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public TransactionId getId() {
         return tid;
     }
 
-    /** Finish the transaction */
-    public void commit() throws IOException {
-        transactionComplete(false);
+    /**
+     * Finish the transaction
+     *
+     * @return true if the transaction committed, false if it was optimistic
+     *         and failed validation, and aborted instead
+     */
+    public boolean commit() throws IOException {
+        return transactionComplete(false);
     }
 
     /** Finish the transaction */
@@ -41,25 +75,31 @@ public class Transaction {
         transactionComplete(true);
     }
 
-    /** Handle the details of transaction commit / abort */
-    public void transactionComplete(boolean abort) throws IOException {
+    /**
+     * Handle the details of transaction commit / abort
+     *
+     * @return true if the transaction committed
+     */
+    public boolean transactionComplete(boolean abort) throws IOException {
+        boolean committed = false;
 
         if (started) {
             //write abort log record and rollback transaction
-            if (abort) {
+            if (abort && !readOnly) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            // flush pages, write commit log record and release locks
+            committed = Database.getBufferPool().transactionComplete(tid, !abort, !readOnly);
 
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
+            if (!committed && !abort && !readOnly) {
+                // failed validation; nothing it wrote reached the log
+                Database.getLogFile().logAbort(tid);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
         }
+        return committed;
     }
 }
@@ -174,6 +174,39 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.reverseIterator() on a page that deletions
+	 * have left gaps in
+	 */
+	@Test public void testReverseIteratorWithGaps() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		List<BTreeEntry> entries = new ArrayList<>();
+		Iterator<BTreeEntry> it = page.iterator();
+		while (it.hasNext())
+			entries.add(it.next());
+
+		// delete every other entry, leaving a gap before each of the rest
+		for (int i = entries.size() - 2; i >= 0; i -= 2)
+			page.deleteKeyAndRightChild(entries.get(i));
+
+		List<BTreeEntry> forward = new ArrayList<>();
+		it = page.iterator();
+		while (it.hasNext())
+			forward.add(it.next());
+		Collections.reverse(forward);
+
+		it = page.reverseIterator();
+		for (BTreeEntry expected : forward) {
+			assertTrue(it.hasNext());
+			BTreeEntry e = it.next();
+			assertEquals(expected.getKey(), e.getKey());
+			assertEquals(expected.getLeftChild(), e.getLeftChild());
+			assertEquals(expected.getRightChild(), e.getRightChild());
+			assertEquals(expected.getRecordId(), e.getRecordId());
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * Unit test for BTreeInternalPage.getNumEmptySlots()
 	 */
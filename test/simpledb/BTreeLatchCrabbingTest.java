@@ -0,0 +1,94 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeLatchCrabbingTest extends SimpleDbTestBase {
+	private BufferPool bp;
+	private BTreeFile bigFile;
+	private BTreePageId rootPtrId;
+	private BTreePageId rootId;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// This should create a B+ tree with 100 leaf pages and an internal root
+		bigFile = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		bp = Database.getBufferPool();
+		rootPtrId = BTreeRootPtrPage.getId(bigFile.getId());
+		TransactionId tid = new TransactionId();
+		rootId = ((BTreeRootPtrPage) bp.getPage(tid, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		bp.transactionComplete(tid);
+		assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+	}
+
+	/**
+	 * A lookup should keep its lock on the leaf page it reads, and none on the
+	 * pages above it.
+	 */
+	@Test public void lookupLetsGoOfInternalPages() throws Exception {
+		TransactionId tid = new TransactionId();
+		DbFileIterator it = bigFile.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(0)));
+		it.open();
+		assertTrue(it.hasNext());
+		Tuple t = it.next();
+		it.close();
+
+		assertTrue(bp.holdsLock(tid, t.getRecordId().getPageId()));
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		bp.transactionComplete(tid);
+	}
+
+	/**
+	 * An insert into a leaf page with room should keep its lock on the leaf
+	 * page only, so that inserts into other leaf pages do not wait for it.
+	 */
+	@Test public void insertLetsGoOfInternalPages() throws Exception {
+		// the first insert may split the leaf page, and keep the root locked
+		TransactionId tid = new TransactionId();
+		bp.insertTuple(tid, bigFile.getId(), BTreeUtility.getBTreeTuple(1, 2));
+		bp.transactionComplete(tid);
+
+		TransactionId t1 = new TransactionId();
+		Tuple tup = BTreeUtility.getBTreeTuple(1, 2);
+		bp.insertTuple(t1, bigFile.getId(), tup);
+		PageId leaf = tup.getRecordId().getPageId();
+		assertTrue(bp.holdsLock(t1, leaf));
+		assertFalse(bp.holdsLock(t1, rootPtrId));
+		assertFalse(bp.holdsLock(t1, rootId));
+
+		// an insert into another leaf page goes ahead
+		TransactionId t2 = new TransactionId();
+		Tuple other = BTreeUtility.getBTreeTuple(BTreeUtility.MAX_RAND_VALUE, 2);
+		bp.insertTuple(t2, bigFile.getId(), other);
+		assertNotEquals(leaf, other.getRecordId().getPageId());
+		bp.transactionComplete(t2);
+		bp.transactionComplete(t1);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchCrabbingTest.class);
+	}
+}
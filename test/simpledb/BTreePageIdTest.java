@@ -6,6 +6,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.index.BTreePageId;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
 import simpledb.systemtest.SimpleDbTestBase;
 
 import static org.junit.Assert.*;
@@ -98,6 +100,20 @@ public class BTreePageIdTest extends SimpleDbTestBase {
         assertNotEquals(pid3, pid1);
 	}
 
+	/**
+	 * Unit test for BTreePageId.pack()
+	 */
+	@Test public void pack() {
+		assertEquals(new BTreePageId(1, 1, BTreePageId.LEAF).pack(),
+				new BTreePageId(1, 1, BTreePageId.LEAF).pack());
+		assertNotEquals(new BTreePageId(1, 1, BTreePageId.LEAF).pack(),
+				new BTreePageId(1, 1, BTreePageId.INTERNAL).pack());
+		assertNotEquals(new BTreePageId(1, 0, BTreePageId.ROOT_PTR).pack(),
+				new HeapPageId(1, 0).pack());
+		assertNotEquals(-1L, new BTreePageId(-1, (1 << PageId.PACKED_PAGE_BITS) - 1,
+				BTreePageId.HEADER).pack());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
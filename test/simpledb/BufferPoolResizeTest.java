@@ -0,0 +1,107 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ReplacementPolicyTest.CountingHeapFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.ReplacementPolicyTest.access;
+import static simpledb.ReplacementPolicyTest.range;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private CountingHeapFile big;
+    private CountingHeapFile hot;
+    private TransactionId tid;
+
+    @Before public void createFiles() throws Exception {
+        big = CountingHeapFile.create(100);
+        hot = CountingHeapFile.create(10);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A pool that grows should keep its pages and take as many new ones as
+     * it grew by.
+     */
+    @Test public void grow() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(10, policy);
+            access(bp, big, tid, range(0, 10));
+            bp.resize(20);
+            assertEquals(20, bp.getNumPages());
+            assertEquals(policy.toString(), 0, access(bp, big, tid, range(0, 10)));
+            assertEquals(policy.toString(), 10, access(bp, big, tid, range(10, 20)));
+            assertEquals(policy.toString(), 0, access(bp, big, tid, range(0, 20)));
+        }
+    }
+
+    /**
+     * A pool that shrinks should evict pages by its policy until the rest
+     * fit, and then stay at its new size.
+     */
+    @Test public void shrink() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(20, policy, 4);
+            access(bp, big, tid, range(0, 20));
+            bp.resize(5);
+            assertEquals(5, bp.getNumPages());
+            assertEquals(5, bp.getNumPages(big.getId()));
+            access(bp, big, tid, range(20, 40));
+            assertEquals(5, bp.getNumPages(big.getId()));
+        }
+        BufferPool bp = new BufferPool(20, ReplacementPolicy.LRU);
+        access(bp, big, tid, range(0, 20));
+        bp.resize(5);
+        assertEquals(0, access(bp, big, tid, range(15, 20)));
+    }
+
+    /**
+     * A table at its maximum should make room among its own pages.
+     */
+    @Test public void maxQuota() throws Exception {
+        BufferPool bp = new BufferPool(20);
+        bp.setTableQuota(big.getId(), 0, 5);
+        access(bp, hot, tid, range(0, 10));
+        access(bp, big, tid, range(0, 50));
+        assertEquals(5, bp.getNumPages(big.getId()));
+        assertEquals(0, access(bp, hot, tid, range(0, 10)));
+
+        bp.clearTableQuota(big.getId());
+        access(bp, big, tid, range(50, 100));
+        assertEquals(20, bp.getNumPages(big.getId()));
+    }
+
+    /**
+     * A table at its minimum should keep its pages through a read of more
+     * pages than the pool holds.
+     */
+    @Test public void minQuota() throws Exception {
+        BufferPool bp = new BufferPool(20);
+        bp.setTableQuota(hot.getId(), 5, 20);
+        access(bp, hot, tid, range(0, 5));
+        access(bp, big, tid, range(0, 100));
+        assertEquals(0, access(bp, hot, tid, range(0, 5)));
+        assertEquals(5, bp.getNumPages(hot.getId()));
+
+        try {
+            bp.setTableQuota(hot.getId(), 5, 4);
+            fail("maximum below the minimum");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
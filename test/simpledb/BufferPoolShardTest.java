@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ReplacementPolicyTest.CountingHeapFile;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.ReplacementPolicyTest.access;
+import static simpledb.ReplacementPolicyTest.range;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private static final int NUM_PAGES = 1000;
+    private static final int POOL_PAGES = 256;
+
+    private CountingHeapFile file;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        file = CountingHeapFile.create(NUM_PAGES);
+        tid = new TransactionId();
+    }
+
+    /**
+     * Small pools should have a single shard, and shard counts should be
+     * powers of two.
+     */
+    @Test public void numShards() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(8, new BufferPool(POOL_PAGES, ReplacementPolicy.LRU, 8).getNumShards());
+        assertEquals(4, new BufferPool(POOL_PAGES, ReplacementPolicy.LRU, 6).getNumShards());
+    }
+
+    /**
+     * The capacity of the pool should be shared by the shards: it should hold
+     * exactly as many pages as it was created for, however they hash.
+     */
+    @Test public void sharedCapacity() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(POOL_PAGES, policy, 8);
+            assertEquals(POOL_PAGES, access(bp, file, tid, range(0, POOL_PAGES)));
+            assertEquals(0, access(bp, file, tid, range(0, POOL_PAGES)));
+            access(bp, file, tid, range(POOL_PAGES, 2 * POOL_PAGES));
+            assertTrue(access(bp, file, tid, range(0, 2 * POOL_PAGES)) >= POOL_PAGES);
+        }
+    }
+
+    /**
+     * Threads getting and discarding pages at the same time should always
+     * get the page they asked for, and leave the pool within its capacity.
+     */
+    @Test public void concurrentAccess() throws Exception {
+        BufferPool bp = new BufferPool(POOL_PAGES, ReplacementPolicy.CLOCK, 8);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                TransactionId tid = new TransactionId();
+                for (int i = 0; i < 20000; i++) {
+                    HeapPageId pid = new HeapPageId(file.getId(), r.nextInt(NUM_PAGES));
+                    if (i % 100 == 0) {
+                        bp.discardPage(pid);
+                    }
+                    assertEquals(pid, bp.getPage(tid, pid, Permissions.READ_ONLY).getId());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : results) {
+            f.get();
+        }
+        pool.shutdown();
+
+        // at most POOL_PAGES pages were left in the pool
+        int cached = POOL_PAGES * 2 - access(bp, file, tid, range(0, POOL_PAGES * 2));
+        assertTrue(cached <= POOL_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
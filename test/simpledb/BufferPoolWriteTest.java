@@ -140,6 +140,136 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.insertTuples()
+     */
+    @Test public void insertTuples() throws Exception {
+        // 504 tuples fill the empty page, the other 2520 need 5 more pages
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 504 * 6; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().insertTuples(tid, empty.getId(), tuples);
+        assertEquals(6, empty.numPages());
+
+        for (int i = 0; i < 6; ++i) {
+            HeapPageId pid = new HeapPageId(empty.getId(), i);
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(0, p.getNumEmptySlots());
+            assertEquals(tid, p.isDirty());
+        }
+
+        // the tuples come back from a scan, in insertion order
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        for (Tuple t : tuples) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * A load that takes more than one batch of the pool keeps all of its
+     * pages in the pool, and an abort leaves the table as it was, in the
+     * pool and on disk.
+     */
+    @Test public void abortLargeInsertTuples() throws Exception {
+        Database.resetBufferPool(20);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 504 * 12; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().insertTuples(tid, empty.getId(), tuples);
+        for (int i = 0; i < 12; ++i) {
+            HeapPageId pid = new HeapPageId(empty.getId(), i);
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(tid, p.isDirty());
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(0, countTuples(new TransactionId()));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, countTuples(new TransactionId()));
+    }
+
+    /**
+     * A load that does not fit in the pool fails, and its abort leaves the
+     * table as it was on disk.
+     */
+    @Test public void insertTuplesLargerThanPool() throws Exception {
+        Database.resetBufferPool(20);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 504 * 30; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        try {
+            Database.getBufferPool().insertTuples(tid, empty.getId(), tuples);
+            fail("expected DbException");
+        } catch (DbException expected) {
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        assertEquals(0, countTuples(new TransactionId()));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, countTuples(new TransactionId()));
+    }
+
+    /**
+     * The pages a load appends should be locked before another transaction
+     * can find them in the free-space map, so that an insert of that
+     * transaction is not lost when the pool installs the load's pages.
+     */
+    @Test public void appendedPagesLockedBeforeReachable() throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 504 * 2 + 10; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        BufferPool bp = Database.getBufferPool();
+        List<Page> appended = empty.insertTuples(tid, tuples.iterator(), 10);
+        assertEquals(3, appended.size());
+        for (Page pg : appended) {
+            assertTrue(bp.holdsLock(tid, pg.getId()));
+        }
+
+        // an insert finds the last page free, and has to wait for the load
+        TransactionId other = new TransactionId();
+        List<Exception> failures = new ArrayList<>();
+        Thread inserter = new Thread(() -> {
+            try {
+                bp.insertTuple(other, empty.getId(), Utility.getHeapTuple(-1, 2));
+                bp.transactionComplete(other, true);
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        });
+        inserter.start();
+        inserter.join(200);
+        assertTrue(inserter.isAlive());
+
+        for (Page pg : appended) {
+            bp.markDirty(tid, pg);
+        }
+        bp.transactionComplete(tid, true);
+        inserter.join();
+        assertTrue(failures.isEmpty());
+        assertEquals(tuples.size() + 1, countTuples(new TransactionId()));
+    }
+
+    private int countTuples(TransactionId reader) throws Exception {
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+        return count;
+    }
+
     /**
      * JUnit suite target
      */
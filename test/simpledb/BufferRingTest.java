@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.ReplacementPolicyTest.CountingHeapFile;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.ReplacementPolicyTest.access;
+import static simpledb.ReplacementPolicyTest.range;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+
+    /**
+     * A scan of a table larger than the pool should go through a ring and
+     * leave the pages other queries use in the pool.
+     */
+    @Test public void scanKeepsPoolWarm() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        CountingHeapFile hot = CountingHeapFile.create(10);
+        CountingHeapFile big = CountingHeapFile.create(10 * POOL_PAGES);
+        assertEquals(10, access(bp, hot, tid, range(0, 10)));
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        assertEquals(10 * POOL_PAGES, big.reads.get());
+
+        assertEquals(0, access(bp, hot, tid, range(0, 10)));
+    }
+
+    /**
+     * A scan through a ring should return every tuple of the table, from the
+     * start again after a rewind.
+     */
+    @Test public void scanThroughRing() throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, null, tuples);
+        assertTrue(f.numPages() > POOL_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        it.rewind();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(tuples.size(), count);
+    }
+
+    /**
+     * A page should be served from the ring until the pool writes or
+     * discards it, and from the pool while the pool holds it.
+     */
+    @Test public void stalePagesReread() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        CountingHeapFile file = CountingHeapFile.create(4);
+        BufferRing ring = new BufferRing(2);
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+
+        bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        assertEquals(1, file.reads.get());
+
+        bp.discardPage(pid);
+        bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        assertEquals(2, file.reads.get());
+
+        // a page in the pool is the current one
+        Page dirty = bp.getPage(tid, pid, Permissions.READ_WRITE);
+        dirty.markDirty(true, tid);
+        assertSame(dirty, bp.getPage(tid, pid, Permissions.READ_ONLY, ring));
+
+        // the oldest frame is recycled
+        bp.getPage(tid, new HeapPageId(file.getId(), 1), Permissions.READ_ONLY, ring);
+        bp.getPage(tid, new HeapPageId(file.getId(), 2), Permissions.READ_ONLY, ring);
+        bp.getPage(tid, new HeapPageId(file.getId(), 3), Permissions.READ_ONLY, ring);
+        int reads = file.reads.get();
+        bp.getPage(tid, new HeapPageId(file.getId(), 1), Permissions.READ_ONLY, ring);
+        assertEquals(reads + 1, file.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
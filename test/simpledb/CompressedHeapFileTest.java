@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".idx").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Blocks should decompress to what was compressed, whether they compress
+     * well, badly or not at all.
+     */
+    @Test public void codecRoundTrip() throws Exception {
+        Random r = new Random(42);
+        for (int len : new int[] { 0, 1, 11, 12, 13, 100, 4096, 70000 }) {
+            for (int kind = 0; kind < 3; kind++) {
+                byte[] src = new byte[len];
+                for (int i = 0; i < len; i++) {
+                    // random bytes, few distinct bytes, long runs
+                    src[i] = (byte) (kind == 0 ? r.nextInt(256) : kind == 1 ? r.nextInt(4) : i / 300);
+                }
+                byte[] block = new byte[Lz4BlockCodec.maxCompressedLength(len)];
+                int n = Lz4BlockCodec.compress(src, 0, len, block);
+                byte[] out = new byte[len];
+                Lz4BlockCodec.decompress(block, 0, n, out, len);
+                assertArrayEquals(src, out);
+            }
+        }
+
+        byte[] zeroes = new byte[BufferPool.getPageSize()];
+        byte[] block = new byte[Lz4BlockCodec.maxCompressedLength(zeroes.length)];
+        assertTrue(Lz4BlockCodec.compress(zeroes, 0, zeroes.length, block) < 64);
+    }
+
+    /**
+     * A compressed copy of a heap file should hold the same tuples in fewer
+     * bytes.
+     */
+    @Test public void compressFile() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        File plain = SystemTestUtil.createRandomHeapFileUnopened(4, 5000, 64, null, tuples);
+        File f = tempFile();
+        HeapFile.compressFile(plain, f);
+        assertTrue(f.length() * 3 < plain.length());
+
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(4), HeapPageFormat.FIXED, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertTrue(hf.isCompressed());
+        assertEquals(plain.length() / BufferPool.getPageSize(), hf.numPages());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Pages written to a compressed file should read back, also from a new
+     * HeapFile over the same file, and after they grew too big for the room
+     * they had.
+     */
+    @Test public void writeAndReopen() throws Exception {
+        File f = tempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        // few distinct values, so the pages compress well at first
+        TransactionId tid = new TransactionId();
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 1500; i++) {
+            inserted.add(Utility.getHeapTuple(new int[] { i % 3, 7 }));
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), inserted);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        hf.force();
+        long compactLength = f.length();
+
+        // random values make page 0 grow past its block
+        Random r = new Random(7);
+        List<List<Integer>> expected = new ArrayList<>();
+        HeapPage pg = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        List<Tuple> onPage = new ArrayList<>();
+        pg.iterator().forEachRemaining(onPage::add);
+        for (Tuple t : onPage) {
+            pg.deleteTuple(t);
+            pg.insertTuple(Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() }));
+        }
+        hf.writePage(pg);
+        hf.force();
+        assertTrue(f.length() > compactLength);
+
+        pg.iterator().forEachRemaining(t -> expected.add(SystemTestUtil.tupleToList(t)));
+        for (int i = onPage.size(); i < inserted.size(); i++) {
+            expected.add(SystemTestUtil.tupleToList(inserted.get(i)));
+        }
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, false, true);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(hf.numPages(), reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, expected);
+    }
+
+    /**
+     * A page read while it is overwritten in place should read as one of the
+     * pages written, never as a mix of them.
+     */
+    @Test public void readsDuringInPlaceWrites() throws Exception {
+        File f = tempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.FIXED, false, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+
+        // random values take a whole page, so every later write fits in place
+        Random r = new Random(3);
+        HeapPage pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = pg.getNumEmptySlots();
+        for (int i = 0; i < slots; i++) {
+            pg.insertTuple(Utility.getHeapTuple(new int[] { r.nextInt(), r.nextInt() }));
+        }
+        hf.writePage(pg);
+        // the pages written from here on hold v in field 1 of every tuple
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    List<Tuple> tuples = new ArrayList<>();
+                    ((HeapPage) hf.readPage(pid)).iterator().forEachRemaining(tuples::add);
+                    if (tuples.isEmpty()) {
+                        continue;
+                    }
+                    int v = ((IntField) tuples.get(0).getField(1)).getValue();
+                    assertEquals(slots, tuples.size());
+                    for (Tuple t : tuples) {
+                        assertEquals(v, ((IntField) t.getField(1)).getValue());
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        try {
+            for (int v = 0; v < 2000 && failure.get() == null; v++) {
+                pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+                for (int i = 0; i < slots; i++) {
+                    pg.insertTuple(Utility.getHeapTuple(new int[] { i * v, v }));
+                }
+                hf.writePage(pg);
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
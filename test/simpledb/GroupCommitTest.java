@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int COMMITTERS = 8;
+
+    private LogFile log;
+
+    @Before public void openLog() {
+        log = Database.getLogFile();
+    }
+
+    /** A commit should return once the log was forced past its record. */
+    @Test public void commitIsForced() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        int forces = log.getNumForces();
+        log.logCommit(tid);
+        assertTrue(log.getNumForces() > forces);
+        assertEquals(2, log.getTotalRecords());
+    }
+
+    /**
+     * Transactions that commit together should share forces, and all of
+     * their commit records should reach the log.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        // long enough for all the committers to join the first group
+        log.setGroupCommitWait(200_000);
+        ExecutorService pool = Executors.newFixedThreadPool(COMMITTERS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> commits = new ArrayList<>();
+        int forces = log.getNumForces();
+        for (int i = 0; i < COMMITTERS; i++) {
+            commits.add(pool.submit(() -> {
+                TransactionId tid = new TransactionId();
+                log.logXactionBegin(tid);
+                start.await();
+                log.logCommit(tid);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> commit : commits) {
+            commit.get();
+        }
+        pool.shutdown();
+
+        assertTrue(log.getNumForces() - forces < COMMITTERS);
+        assertEquals(2 * COMMITTERS, log.getTotalRecords());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -1,12 +1,17 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +21,64 @@ import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
 
 public class HeapFileReadTest extends SimpleDbTestBase {
+    // a HeapFile of empty pages that records the reads of its scans
+    static class ReadAheadHeapFile extends HeapFile {
+        // {first page, page count} of each read ahead
+        final List<int[]> batches = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> pageReads = Collections.synchronizedList(new ArrayList<>());
+        volatile long delayMillis;
+
+        ReadAheadHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        static ReadAheadHeapFile create(int numPages) throws Exception {
+            File f = File.createTempFile("readahead", ".dat");
+            f.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.setLength((long) numPages * BufferPool.getPageSize());
+            }
+            ReadAheadHeapFile file = new ReadAheadHeapFile(f, Utility.getTupleDesc(1));
+            Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+            return file;
+        }
+
+        @Override
+        protected List<Page> readPages(int firstPgNo, int count) throws IOException {
+            batches.add(new int[] { firstPgNo, count });
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.readPages(firstPgNo, count);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            pageReads.add(pid.getPageNumber());
+            return super.readPage(pid);
+        }
+
+        /** Scans the whole file and returns the reads ahead, in page order. */
+        List<int[]> scan(TransactionId tid) throws Exception {
+            DbFileIterator it = iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+            }
+            it.close();
+            List<int[]> sorted;
+            synchronized (batches) {
+                sorted = new ArrayList<>(batches);
+            }
+            sorted.sort(Comparator.comparingInt(b -> b[0]));
+            return sorted;
+        }
+    }
+
     private HeapFile hf;
     private TransactionId tid;
     private TupleDesc td;
@@ -81,6 +144,56 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() on a memory-mapped HeapFile
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        assertEquals(hf.getId(), mapped.getId());
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+
+        // the mapping has to follow the file as it grows
+        mapped.writePage(new HeapPage(new HeapPageId(hf.getId(), 1), expected.getPageData()));
+        assertEquals(2, mapped.numPages());
+        page = (HeapPage) mapped.readPage(new HeapPageId(hf.getId(), 1));
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+
+        try {
+            mapped.readPage(new HeapPageId(hf.getId(), 2));
+            fail("expected exception");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
+
+    /**
+     * A page read from the mapping should keep its records, and its before
+     * image, once it has been modified and the file changes under it.
+     */
+    @Test
+    public void memoryMappedPageCopiedOnWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertArrayEquals(expected, page.getPageData());
+
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        byte[] modified = page.getPageData();
+        mapped.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+
+        assertArrayEquals(modified, page.getPageData());
+        assertArrayEquals(expected, page.getBeforeImage().getPageData());
+        assertEquals(485, page.getNumEmptySlots());
+        assertEquals(504, ((HeapPage) mapped.readPage(pid)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -125,6 +238,150 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan should start reading ahead once it moved to the next page, with
+     * the smallest window, and from then on every page should come in
+     * through a read ahead, read once, without reading past the end of the
+     * file.
+     */
+    @Test
+    public void sequentialScanReadsAhead() throws Exception {
+        Database.resetBufferPool(100);
+        ReadAheadHeapFile file = ReadAheadHeapFile.create(40);
+        List<int[]> batches = file.scan(tid);
+
+        assertFalse(batches.isEmpty());
+        assertArrayEquals(new int[] { 2, 4 }, batches.get(0));
+        int next = 2;
+        for (int[] batch : batches) {
+            assertEquals(next, batch[0]);
+            assertTrue(batch[1] > 0);
+            next += batch[1];
+        }
+        assertEquals(file.numPages(), next);
+        assertEquals(file.numPages(), file.pageReads.size());
+        assertEquals(file.numPages(), new HashSet<>(file.pageReads).size());
+    }
+
+    /**
+     * The window should double while the scan keeps catching up with pages
+     * that are still being read, up to 64 pages, and stay within a quarter
+     * of the pool.
+     */
+    @Test
+    public void readAheadWindowBounds() throws Exception {
+        Database.resetBufferPool(400);
+        ReadAheadHeapFile file = ReadAheadHeapFile.create(300);
+        file.delayMillis = 20;
+        int largest = 0;
+        for (int[] batch : file.scan(tid)) {
+            assertTrue(batch[1] <= 64);
+            largest = Math.max(largest, batch[1]);
+        }
+        assertEquals(64, largest);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(40);
+        file = ReadAheadHeapFile.create(40);
+        file.delayMillis = 20;
+        largest = 0;
+        for (int[] batch : file.scan(tid)) {
+            assertTrue(batch[1] <= 40 / 4);
+            largest = Math.max(largest, batch[1]);
+        }
+        assertEquals(40 / 4, largest);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a quarter of this pool is less than the smallest window
+        Database.resetBufferPool(12);
+        file = ReadAheadHeapFile.create(10);
+        assertTrue(file.scan(tid).isEmpty());
+        assertEquals(10, file.pageReads.size());
+    }
+
+    /**
+     * Pages read ahead and then reached by the scan have been accessed once,
+     * so under ARC they should be evicted before pages that were accessed
+     * twice.
+     */
+    @Test
+    public void readAheadIsNotAnAccess() throws Exception {
+        System.setProperty(ReplacementPolicy.PROPERTY, "arc");
+        BufferPool bp;
+        try {
+            bp = Database.resetBufferPool(40);
+        } finally {
+            System.clearProperty(ReplacementPolicy.PROPERTY);
+        }
+        ReadAheadHeapFile hot = ReadAheadHeapFile.create(5);
+        for (int i = 0; i < 2; i++) {
+            for (int pgNo = 0; pgNo < 5; pgNo++) {
+                bp.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+            }
+        }
+
+        // together the scans need more frames than the pool has left
+        for (int i = 0; i < 2; i++) {
+            ReadAheadHeapFile scanned = ReadAheadHeapFile.create(30);
+            assertFalse(scanned.scan(tid).isEmpty());
+        }
+
+        int reads = hot.pageReads.size();
+        for (int pgNo = 0; pgNo < 5; pgNo++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        assertEquals(reads, hot.pageReads.size());
+    }
+
+    /**
+     * A page written while pages around it are read ahead should read back
+     * as written: nothing a read ahead read before the write may be handed
+     * out afterwards.
+     */
+    @Test
+    public void writesInterleavedWithReadAhead() throws Exception {
+        ReadAheadHeapFile file = ReadAheadHeapFile.create(8);
+        HeapPageId pid = new HeapPageId(file.getId(), 3);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    file.readPages(0, 8);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                HeapPage pg = new HeapPage(pid, HeapPage.createEmptyPageData());
+                pg.insertTuple(Utility.getHeapTuple(i));
+                file.writePage(pg);
+                Tuple t = ((HeapPage) file.readPage(pid)).iterator().next();
+                assertEquals(i, ((IntField) t.getField(0)).getValue());
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+    }
+
+    /**
+     * Pages fetched out of order should not be read ahead.
+     */
+    @Test
+    public void noReadAheadOnRandomAccess() throws Exception {
+        BufferPool bp = Database.resetBufferPool(100);
+        ReadAheadHeapFile file = ReadAheadHeapFile.create(40);
+        int[] pgNos = { 17, 3, 29, 8, 35, 12, 1, 24 };
+        for (int pgNo : pgNos) {
+            bp.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        assertTrue(file.batches.isEmpty());
+        assertEquals(pgNos.length, file.pageReads.size());
+    }
+
     /**
      * JUnit suite target
      */
@@ -7,12 +7,15 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -90,6 +93,76 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Inserts should go to a page with a free slot, found through the
+     * free-space map, and the map should outlive the HeapFile object.
+     */
+    @Test public void freeSpaceMap() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        // fill the first two pages
+        Tuple first = Utility.getHeapTuple(0, 2);
+        bp.insertTuple(tid, empty.getId(), first);
+        Tuple last = null;
+        for (int i = 1; i < 2 * 504; ++i) {
+            last = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), last);
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(1, last.getRecordId().getPageId().getPageNumber());
+
+        // a slot freed on page 0 is reused instead of adding a page
+        bp.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, empty.numPages());
+
+        // free a slot on page 1 and write everything out
+        bp.deleteTuple(tid, last);
+        bp.flushAllPages();
+        assertTrue(new File(empty.getFile().getPath() + ".fsm").exists());
+
+        // a fresh HeapFile over the same file picks the map up
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, "reopened");
+        t = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, reopened.getId(), t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, reopened.numPages());
+        new File(empty.getFile().getPath() + ".fsm").delete();
+    }
+
+    /**
+     * A tuple that needs a new page should go to it through the buffer
+     * pool, locked and returned to be marked dirty, so that an abort takes
+     * it back.
+     */
+    @Test public void appendedPageIsUndone() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < 504; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid, true);
+
+        TransactionId appender = new TransactionId();
+        Tuple t = Utility.getHeapTuple(504, 2);
+        List<Page> dirtied = empty.insertTuple(appender, t);
+        assertEquals(1, dirtied.size());
+        HeapPageId pid = new HeapPageId(empty.getId(), 1);
+        assertEquals(pid, dirtied.get(0).getId());
+        assertEquals(pid, t.getRecordId().getPageId());
+        assertTrue(bp.holdsLock(appender, pid));
+        for (Page pg : dirtied) {
+            bp.markDirty(appender, pg);
+        }
+        bp.transactionComplete(appender, false);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(504, p.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
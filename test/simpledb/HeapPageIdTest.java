@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
 import simpledb.systemtest.SimpleDbTestBase;
 
 import static org.junit.Assert.*;
@@ -76,6 +77,21 @@ public class HeapPageIdTest extends SimpleDbTestBase {
         assertNotEquals(pid2, pid1Copy);
     }
 
+    /**
+     * Unit test for HeapPageId.pack()
+     */
+    @Test public void pack() {
+        assertEquals(new HeapPageId(1, 1).pack(), new HeapPageId(1, 1).pack());
+        assertNotEquals(new HeapPageId(1, 2).pack(), new HeapPageId(2, 1).pack());
+        assertNotEquals(new HeapPageId(-1, 0).pack(), new HeapPageId(0, 0).pack());
+        try {
+            new HeapPageId(1, 1 << PageId.PACKED_PAGE_BITS).pack();
+            fail("page number too large to pack");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -13,8 +13,10 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -102,6 +104,31 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples handed out by a page decode their fields on demand. The page
+     * should come out as it was read unless a tuple was changed, and then
+     * carry the change.
+     */
+    @Test public void testTupleViews() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        // the same tuple comes back on a second scan
+        Tuple first = page.iterator().next();
+        assertSame(first, page.iterator().next());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][0] + "\t" + EXAMPLE_VALUES[0][1] + "\n", first.toString());
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        first.setField(0, new IntField(-1));
+        HeapPage reread = new HeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reread.iterator();
+        Tuple tup = it.next();
+        assertEquals(-1, ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(EXAMPLE_VALUES[1][0], ((IntField) it.next().getField(0)).getValue());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
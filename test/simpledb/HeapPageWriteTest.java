@@ -13,6 +13,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -131,6 +132,20 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A tuple read from one page and inserted into another should be written
+     * out with its own values, not with the bytes found in its new slot.
+     */
+    @Test public void insertTupleFromOtherPage() throws Exception {
+        HeapPage source = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        HeapPage target = new HeapPage(new HeapPageId(-1, 1), HeapPage.createEmptyPageData());
+        target.insertTuple(source.iterator().next());
+
+        Tuple reread = new HeapPage(target.getId(), target.getPageData()).iterator().next();
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) reread.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1], ((IntField) reread.getField(1)).getValue());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,370 @@
+package simpledb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.DeadlockException;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking that a request is still waiting, in ms */
+    private static final int WAIT = 100;
+
+    private LockManager lm;
+    private PageId p0;
+    private TransactionId tid1, tid2, tid3;
+
+    @Before public void setUp() {
+        lm = new LockManager(10000);
+        p0 = new HeapPageId(1, 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Takes a lock in another thread. */
+    private CompletableFuture<Void> acquireLater(TransactionId tid, PageId pid, boolean exclusive) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid, pid, exclusive);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static void assertWaiting(CompletableFuture<Void> request) throws Exception {
+        Thread.sleep(WAIT);
+        assertFalse(request.isDone());
+    }
+
+    private static void assertGranted(CompletableFuture<Void> request) throws Exception {
+        request.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A reader that comes after a waiting writer should wait behind it.
+     */
+    @Test public void fifo() throws Exception {
+        lm.acquire(tid1, p0, false);
+        CompletableFuture<Void> writer = acquireLater(tid2, p0, true);
+        assertWaiting(writer);
+        CompletableFuture<Void> reader = acquireLater(tid3, p0, false);
+        assertWaiting(reader);
+
+        lm.releaseAll(tid1);
+        assertGranted(writer);
+        assertWaiting(reader);
+        lm.releaseAll(tid2);
+        assertGranted(reader);
+        assertTrue(lm.holdsLock(tid3, p0));
+    }
+
+    /**
+     * An upgrade should go ahead of the requests already waiting.
+     */
+    @Test public void upgradeFirst() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        CompletableFuture<Void> writer = acquireLater(tid3, p0, true);
+        assertWaiting(writer);
+        CompletableFuture<Void> upgrade = acquireLater(tid1, p0, true);
+        assertWaiting(upgrade);
+
+        lm.releaseAll(tid2);
+        assertGranted(upgrade);
+        assertWaiting(writer);
+        lm.releaseAll(tid1);
+        assertGranted(writer);
+    }
+
+    /**
+     * A request should give up after the lock timeout, and not hold up the
+     * requests behind it.
+     */
+    @Test public void timeout() throws Exception {
+        lm = new LockManager(50);
+        lm.acquire(tid1, p0, true);
+        CompletableFuture<Void> waiter = acquireLater(tid2, p0, true);
+        try {
+            waiter.get(10, TimeUnit.SECONDS);
+            fail("lock granted while another transaction held it");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof TransactionAbortedException);
+        }
+        assertFalse(lm.holdsLock(tid2, p0));
+
+        lm.releaseAll(tid1);
+        lm.acquire(tid3, p0, true);
+        assertTrue(lm.holdsLock(tid3, p0));
+    }
+
+    /**
+     * A request that closes a cycle should abort the youngest transaction of
+     * the cycle right away, whether it is the requester or another waiter.
+     */
+    @Test public void deadlock() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+        CompletableFuture<Void> older = acquireLater(tid1, p1, true);
+        assertWaiting(older);
+        try {
+            lm.acquire(tid2, p0, false);
+            fail("deadlock not detected");
+        } catch (DeadlockException e) {
+            // expected
+        }
+        assertWaiting(older);
+        lm.releaseAll(tid2);
+        assertGranted(older);
+        lm.releaseAll(tid1);
+
+        // the younger transaction waits first, the older one closes the cycle
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid3, p1, false);
+        CompletableFuture<Void> younger = acquireLater(tid3, p0, true);
+        assertWaiting(younger);
+        CompletableFuture<Void> closer = acquireLater(tid1, p1, true);
+        try {
+            younger.get(1, TimeUnit.SECONDS);
+            fail("deadlock not detected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof DeadlockException);
+        }
+        assertWaiting(closer);
+        lm.releaseAll(tid3);
+        assertGranted(closer);
+    }
+
+    /** Asserts that a request was aborted to break a deadlock, well before the lock timeout. */
+    private static void assertDeadlocked(CompletableFuture<Void> request) throws Exception {
+        try {
+            request.get(1, TimeUnit.SECONDS);
+            fail("deadlock not detected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof DeadlockException);
+        }
+    }
+
+    /**
+     * A request that closes two cycles at once should abort a victim in
+     * each of them.
+     */
+    @Test public void deadlockClosingTwoCycles() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, false);
+        lm.acquire(tid3, p1, false);
+        CompletableFuture<Void> second = acquireLater(tid2, p0, false);
+        assertWaiting(second);
+        CompletableFuture<Void> third = acquireLater(tid3, p0, false);
+        assertWaiting(third);
+
+        // tid1 now waits for both readers of p1, each waiting for it
+        CompletableFuture<Void> closer = acquireLater(tid1, p1, true);
+        assertDeadlocked(second);
+        assertDeadlocked(third);
+        lm.releaseAll(tid2);
+        lm.releaseAll(tid3);
+        assertGranted(closer);
+    }
+
+    /**
+     * A request waits for the requests queued ahead of it even when their
+     * modes are compatible, since the queue is granted in order; a cycle
+     * through such a request should be found.
+     */
+    @Test public void deadlockThroughQueuedRequest() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid3, p1, true);
+        CompletableFuture<Void> intentWrite = CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid2, p0, LockMode.IX);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertWaiting(intentWrite);
+        // compatible with everything, but queued behind the IX request
+        CompletableFuture<Void> intentRead = CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid3, p0, LockMode.IS);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertWaiting(intentRead);
+
+        CompletableFuture<Void> closer = acquireLater(tid1, p1, true);
+        assertDeadlocked(intentRead);
+        lm.releaseAll(tid3);
+        assertGranted(closer);
+        lm.releaseAll(tid1);
+        assertGranted(intentWrite);
+    }
+
+    /**
+     * An upgrade granted right away may conflict with requests already
+     * waiting, which then wait for it too; a cycle through that edge should
+     * be found.
+     */
+    @Test public void deadlockAfterGrantedUpgrade() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, LockMode.IS);
+        lm.acquire(tid3, p1, true);
+        CompletableFuture<Void> intentWrite = CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid3, p0, LockMode.IX);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertWaiting(intentWrite);
+        // compatible with the shared lock of tid1, so granted at once
+        lm.acquire(tid2, p0, false);
+        assertEquals(LockMode.S, lm.getLockMode(tid2, p0));
+
+        CompletableFuture<Void> closer = acquireLater(tid2, p1, true);
+        assertDeadlocked(intentWrite);
+        lm.releaseAll(tid3);
+        assertGranted(closer);
+    }
+
+    /**
+     * Two readers upgrading the same page deadlock; one of them should get
+     * the page.
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        CompletableFuture<Void> upgrade = acquireLater(tid1, p0, true);
+        assertWaiting(upgrade);
+        try {
+            lm.acquire(tid2, p0, true);
+            fail("deadlock not detected");
+        } catch (DeadlockException e) {
+            lm.releaseAll(tid2);
+        }
+        assertGranted(upgrade);
+    }
+
+    /**
+     * release should only give up the lock of one page.
+     */
+    @Test public void release() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid1, p1, false);
+        lm.release(tid1, p0);
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertTrue(lm.holdsLock(tid1, p1));
+        assertEquals(1, lm.getLockedPages(tid1).size());
+        lm.acquire(tid2, p0, true);
+        lm.releaseAll(tid1);
+        assertTrue(lm.getLockedPages(tid1).isEmpty());
+    }
+
+    /**
+     * Writers of different records of a page should hold their locks at
+     * once, while a reader of the whole page waits for them.
+     */
+    @Test public void recordLocks() throws Exception {
+        lm.acquire(tid1, new RecordId(p0, 0), true);
+        lm.acquire(tid2, new RecordId(p0, 1), true);
+        assertEquals(LockMode.IX, lm.getLockMode(tid1, p0));
+        assertEquals(LockMode.IX, lm.getTableLockMode(tid2, p0.getTableId()));
+        CompletableFuture<Void> sameRecord = CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid3, new RecordId(p0, 1), false);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertWaiting(sameRecord);
+        lm.releaseAll(tid2);
+        assertGranted(sameRecord);
+        lm.releaseAll(tid3);
+
+        CompletableFuture<Void> reader = acquireLater(tid3, p0, false);
+        assertWaiting(reader);
+        lm.releaseAll(tid1);
+        assertGranted(reader);
+        assertTrue(lm.holdsLock(tid3, new RecordId(p0, 5)));
+    }
+
+    /**
+     * Past the page threshold, record locks should turn into a lock on the
+     * page, exclusive if any of them was.
+     */
+    @Test public void pageEscalation() throws Exception {
+        lm = new LockManager(10000, 2, 100);
+        lm.acquire(tid1, new RecordId(p0, 0), false);
+        lm.acquire(tid1, new RecordId(p0, 1), true);
+        assertEquals(2, lm.getLockedRecords(tid1).size());
+        lm.acquire(tid1, new RecordId(p0, 2), false);
+        assertEquals(LockMode.X, lm.getLockMode(tid1, p0));
+        assertTrue(lm.getLockedRecords(tid1).isEmpty());
+        assertTrue(lm.holdsLock(tid1, p0, true));
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try {
+                lm.acquire(tid2, new RecordId(p0, 3), true);
+            } catch (TransactionAbortedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertWaiting(writer);
+        lm.releaseAll(tid1);
+        assertGranted(writer);
+    }
+
+    /**
+     * Past the table threshold, the locks on the table's records and pages
+     * should turn into a lock on the table.
+     */
+    @Test public void tableEscalation() throws Exception {
+        lm = new LockManager(10000, 100, 3);
+        PageId other = new HeapPageId(2, 0);
+        lm.acquire(tid1, other, false);
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            lm.acquire(tid1, new RecordId(new HeapPageId(1, pgNo), 0), false);
+        }
+        assertEquals(LockMode.S, lm.getTableLockMode(tid1, 1));
+        assertTrue(lm.getLockedRecords(tid1).isEmpty());
+        assertEquals(1, lm.getLockedPages(tid1).size());
+        assertTrue(lm.holdsLock(tid1, new HeapPageId(1, 7)));
+
+        // readers go ahead, writers wait
+        lm.acquire(tid2, new RecordId(p0, 0), false);
+        CompletableFuture<Void> writer = acquireLater(tid3, new HeapPageId(1, 9), true);
+        assertWaiting(writer);
+        lm.releaseAll(tid1);
+        assertGranted(writer);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 10;
+
+    private BufferPool bp;
+
+    @Before public void createPool() {
+        System.setProperty(BufferPool.OFF_HEAP_PROPERTY, "true");
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    @After public void clearProperty() {
+        System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+    }
+
+    /**
+     * Scans through an off-heap pool should return the same tuples as a pool
+     * on the heap.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(bp.isOffHeap());
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 3000, null, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * Tuples of a page should still decode after the page left the pool and
+     * its frame went to another page.
+     */
+    @Test public void tuplesOutliveFrame() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        TransactionId tid = new TransactionId();
+
+        // hand the tuples of the first page out without decoding them
+        List<Tuple> handedOut = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), 0),
+                Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            handedOut.add(it.next());
+        }
+
+        // reuse every frame of the pool
+        for (int pgNo = 0; pgNo < other.numPages(); pgNo++) {
+            bp.getPage(tid, new HeapPageId(other.getId(), pgNo), Permissions.READ_ONLY);
+        }
+
+        for (int i = 0; i < handedOut.size(); i++) {
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(handedOut.get(i)));
+        }
+    }
+
+    /**
+     * A snapshot reads the before image of a page, which should keep its
+     * bytes after the page's frame went to another page.
+     */
+    @Test public void beforeImageOutlivesFrame() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        TransactionId snapshot = new TransactionId();
+        bp.beginSnapshot(snapshot);
+
+        List<Tuple> handedOut = new ArrayList<>();
+        Iterator<Tuple> it = ((HeapPage) bp.getPage(snapshot, new HeapPageId(f.getId(), 0),
+                Permissions.READ_ONLY)).iterator();
+        while (it.hasNext()) {
+            handedOut.add(it.next());
+        }
+
+        // reuse every frame of the pool
+        TransactionId tid = new TransactionId();
+        for (int pgNo = 0; pgNo < other.numPages(); pgNo++) {
+            bp.getPage(tid, new HeapPageId(other.getId(), pgNo), Permissions.READ_ONLY);
+        }
+
+        for (int i = 0; i < handedOut.size(); i++) {
+            assertEquals(tuples.get(i), SystemTestUtil.tupleToList(handedOut.get(i)));
+        }
+        bp.transactionComplete(tid);
+        bp.transactionComplete(snapshot);
+    }
+
+    /**
+     * Pages changed in an off-heap pool should be written out with their
+     * changes.
+     */
+    @Test public void insertAndFlush() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 2000, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3000; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(i));
+            List<Integer> t = new ArrayList<>();
+            t.add(i);
+            tuples.add(t);
+        }
+        bp.flushAllPages();
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the pages of the table read through the file channel into the
+ * heap, read out of a memory mapping of the file, and kept in an off-heap
+ * pool, since each of these holds the bytes of a page somewhere else.
+ */
+@RunWith(Parameterized.class)
+public class OptimisticTransactionTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> storage() {
+        return Arrays.asList(new Object[][] { { "heap" }, { "mmap" }, { "off-heap" } });
+    }
+
+    @Parameterized.Parameter
+    public String storage;
+
+    private BufferPool bp;
+    private HeapFile file;
+    private HeapPageId p0;
+    private List<List<Integer>> rows;
+
+    @Before public void createFile() throws Exception {
+        if (storage.equals("off-heap")) {
+            System.setProperty(BufferPool.OFF_HEAP_PROPERTY, "true");
+        }
+        try {
+            bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+        }
+        rows = new ArrayList<>();
+        file = storage.equals("mmap")
+                ? SystemTestUtil.createRandomMappedHeapFile(2, ROWS, rows)
+                : SystemTestUtil.createRandomHeapFile(2, ROWS, null, rows);
+        p0 = new HeapPageId(file.getId(), 0);
+    }
+
+    /** @return the first field of every tuple of the table, as tid reads it */
+    private List<Integer> scan(TransactionId tid) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        return values;
+    }
+
+    /**
+     * An optimistic transaction should lock nothing until it commits, and its
+     * changes should be seen by itself only until then.
+     */
+    @Test public void privateUntilCommit() throws Exception {
+        TransactionId occ = new TransactionId();
+        bp.beginOptimistic(occ);
+        bp.insertTuple(occ, file.getId(), Utility.getHeapTuple(-1, 2));
+        assertFalse(bp.holdsLock(occ, p0));
+        assertTrue(scan(occ).contains(-1));
+
+        // a writer gets the page at once, and does not see the insert
+        TransactionId other = new TransactionId();
+        bp.getPage(other, p0, Permissions.READ_WRITE);
+        assertFalse(scan(other).contains(-1));
+        bp.transactionComplete(other, true);
+
+        assertTrue(bp.transactionComplete(occ, true));
+        TransactionId reader = new TransactionId();
+        List<Integer> values = scan(reader);
+        bp.transactionComplete(reader);
+        assertEquals(ROWS + 1, values.size());
+        assertTrue(values.contains(-1));
+    }
+
+    /**
+     * An optimistic transaction should abort if a page it read had a change
+     * committed after it read it, and leave that change alone.
+     */
+    @Test public void conflictAborts() throws Exception {
+        TransactionId occ = new TransactionId();
+        bp.beginOptimistic(occ);
+        assertEquals(ROWS, scan(occ).size());
+
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, file.getId(), Utility.getHeapTuple(-2, 2));
+        bp.transactionComplete(writer, true);
+
+        bp.insertTuple(occ, file.getId(), Utility.getHeapTuple(-1, 2));
+        assertFalse(bp.transactionComplete(occ, true));
+
+        TransactionId reader = new TransactionId();
+        List<Integer> values = scan(reader);
+        bp.transactionComplete(reader);
+        assertEquals(ROWS + 1, values.size());
+        assertTrue(values.contains(-2));
+        assertFalse(values.contains(-1));
+    }
+
+    /**
+     * Optimistic transactions that read the same page without changing it
+     * should both commit.
+     */
+    @Test public void sharedReadsCommit() throws Exception {
+        TransactionId occ1 = new TransactionId();
+        TransactionId occ2 = new TransactionId();
+        bp.beginOptimistic(occ1);
+        bp.beginOptimistic(occ2);
+        scan(occ1);
+        scan(occ2);
+        assertTrue(bp.transactionComplete(occ1, true));
+        assertTrue(bp.transactionComplete(occ2, true));
+    }
+
+    /**
+     * Tuples an optimistic transaction read should keep their values, and
+     * the transaction should still commit, after the pool gave the frames of
+     * the pages it read to other pages.
+     */
+    @Test public void readsOutliveEviction() throws Exception {
+        TransactionId occ = new TransactionId();
+        bp.beginOptimistic(occ);
+        List<Tuple> handedOut = new ArrayList<>();
+        DbFileIterator it = file.iterator(occ);
+        it.open();
+        while (it.hasNext()) {
+            handedOut.add(it.next());
+        }
+        it.close();
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * (BufferPool.DEFAULT_PAGES + 10),
+                null, null);
+        TransactionId reader = new TransactionId();
+        for (int pgNo = 0; pgNo < other.numPages(); pgNo++) {
+            bp.getPage(reader, new HeapPageId(other.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(reader);
+
+        assertEquals(ROWS, handedOut.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(rows.get(i), SystemTestUtil.tupleToList(handedOut.get(i)));
+        }
+        assertTrue(bp.transactionComplete(occ, true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OptimisticTransactionTest.class);
+    }
+}
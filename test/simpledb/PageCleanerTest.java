@@ -0,0 +1,129 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 20;
+    private static final int DIRTY_PAGES = 10;
+
+    private BufferPool bp;
+    private HeapFile file;
+
+    @Before public void createFile() throws Exception {
+        bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setDirtyThresholds(0.1, 0.3);
+        file = SystemTestUtil.createRandomHeapFile(1, 0, null, new ArrayList<>());
+    }
+
+    /** Fills DIRTY_PAGES pages of the table on behalf of tid. */
+    private void dirtyPages(TransactionId tid) throws Exception {
+        int perPage = ((HeapPage) bp.getPage(tid, new HeapPageId(file.getId(), 0),
+                Permissions.READ_ONLY)).getNumEmptySlots();
+        for (int i = 0; i < perPage * DIRTY_PAGES; i++) {
+            bp.insertTuple(tid, file.getId(), Utility.getHeapTuple(i));
+        }
+    }
+
+    /** Counts the dirty pages of the table, reading them on behalf of tid. */
+    private int countDirty(TransactionId tid) throws Exception {
+        int dirty = 0;
+        for (int pgNo = 0; pgNo < file.numPages(); pgNo++) {
+            if (bp.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY).isDirty() != null) {
+                dirty++;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * A commit should write the pages it dirtied itself, logging each one
+     * first, and leave none for the cleaner.
+     */
+    @Test public void commitWritesItsPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirtyPages(tid);
+        assertEquals(DIRTY_PAGES, countDirty(tid));
+        int records = Database.getLogFile().getTotalRecords();
+
+        bp.transactionComplete(tid, true);
+        assertEquals(0, countDirty(new TransactionId()));
+        assertEquals(DIRTY_PAGES, Database.getLogFile().getTotalRecords() - records);
+    }
+
+    /**
+     * Once the transaction that dirtied them completes, the cleaner should
+     * write pages until the low threshold, logging each write first. Commits
+     * write their own pages, so the dirty pages here are the before images
+     * an abort put back.
+     */
+    @Test public void cleansCompletedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirtyPages(tid);
+        assertEquals(DIRTY_PAGES, countDirty(tid));
+        int records = Database.getLogFile().getTotalRecords();
+
+        bp.transactionComplete(tid, false);
+        long deadline = System.currentTimeMillis() + 10000;
+        TransactionId reader = new TransactionId();
+        while (countDirty(reader) > POOL_PAGES / 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        int dirty = countDirty(reader);
+        assertEquals(POOL_PAGES / 10, dirty);
+        assertEquals(DIRTY_PAGES - dirty, Database.getLogFile().getTotalRecords() - records);
+    }
+
+    /**
+     * The pages of a running transaction should stay dirty however many
+     * there are.
+     */
+    @Test public void skipsRunningTransactions() throws Exception {
+        TransactionId tid = new TransactionId();
+        dirtyPages(tid);
+        bp.transactionComplete(new TransactionId(), true);
+        Thread.sleep(200);
+        assertEquals(DIRTY_PAGES, countDirty(tid));
+    }
+
+    /**
+     * Thresholds should be ratios of the pool, the low one first.
+     */
+    @Test public void thresholds() {
+        bp.setDirtyThresholds(0, 1);
+        try {
+            bp.setDirtyThresholds(0.5, 0.2);
+            fail("low threshold above the high one");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            bp.setDirtyThresholds(0.1, 1.5);
+            fail("threshold above 1");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ReplacementPolicyTest.CountingHeapFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.ReplacementPolicyTest.access;
+import static simpledb.ReplacementPolicyTest.range;
+
+public class PagePinTest extends SimpleDbTestBase {
+
+    private CountingHeapFile file;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        file = CountingHeapFile.create(20);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A pinned page should stay in the pool through a read of more pages
+     * than the pool holds, and be evicted again once it is unpinned.
+     */
+    @Test public void pinnedPageStays() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(5, policy);
+            HeapPageId pid = new HeapPageId(file.getId(), 0);
+            bp.pinPage(tid, pid, Permissions.READ_ONLY);
+            bp.pinPage(tid, pid, Permissions.READ_ONLY);
+            assertEquals(2, bp.getPinCount(pid));
+
+            access(bp, file, tid, range(1, 20));
+            assertEquals(policy.toString(), 0, access(bp, file, tid, 0));
+
+            bp.unpinPage(pid);
+            access(bp, file, tid, range(1, 20));
+            assertEquals(policy.toString(), 0, access(bp, file, tid, 0));
+
+            bp.unpinPage(pid);
+            assertEquals(0, bp.getPinCount(pid));
+        }
+
+        BufferPool bp = new BufferPool(5, ReplacementPolicy.LRU);
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        bp.pinPage(tid, pid, Permissions.READ_ONLY);
+        bp.unpinPage(pid);
+        access(bp, file, tid, range(1, 20));
+        assertEquals(1, access(bp, file, tid, 0));
+    }
+
+    /**
+     * A pool whose pages are all pinned should refuse to take another one.
+     */
+    @Test public void allPinned() throws Exception {
+        BufferPool bp = new BufferPool(3);
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            bp.pinPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        try {
+            access(bp, file, tid, 3);
+            fail("evicted a pinned page");
+        } catch (DbException e) {
+            // expected
+        }
+        bp.unpinPage(new HeapPageId(file.getId(), 1));
+        assertEquals(1, access(bp, file, tid, 3));
+        assertEquals(0, access(bp, file, tid, 0, 2));
+    }
+
+    /**
+     * A scan should pin the page it is on, and only that page.
+     */
+    @Test public void scanPinsCurrentPage() throws Exception {
+        BufferPool bp = Database.resetBufferPool(50);
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 2000, null, null);
+        assertTrue(f.numPages() > 1);
+        HeapPageId first = new HeapPageId(f.getId(), 0);
+        HeapPageId second = new HeapPageId(f.getId(), 1);
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        assertEquals(1, bp.getPinCount(first));
+        int perPage = 0;
+        for (Iterator<Tuple> tuples = ((HeapPage) bp.getPage(tid, first,
+                Permissions.READ_ONLY)).iterator(); tuples.hasNext(); tuples.next()) {
+            perPage++;
+        }
+        for (int i = 0; i <= perPage; i++) {
+            assertTrue(it.hasNext());
+            it.next();
+        }
+        assertEquals(0, bp.getPinCount(first));
+        assertEquals(1, bp.getPinCount(second));
+        it.close();
+        assertEquals(0, bp.getPinCount(second));
+    }
+
+    /**
+     * Eviction should write the dirty page of a completed transaction before
+     * a dirty page of a running one.
+     */
+    @Test public void runningTransactionsLast() throws Exception {
+        BufferPool bp = Database.resetBufferPool(2);
+        bp.setDirtyThresholds(1, 1);
+        HeapFile running = SystemTestUtil.createRandomHeapFile(1, 0, null, new ArrayList<>());
+        HeapFile done = SystemTestUtil.createRandomHeapFile(1, 0, null, new ArrayList<>());
+        TransactionId tid2 = new TransactionId();
+        bp.insertTuple(tid, running.getId(), Utility.getHeapTuple(1));
+        bp.insertTuple(tid2, done.getId(), Utility.getHeapTuple(2));
+        bp.transactionComplete(tid2, true);
+
+        HeapPageId pid = new HeapPageId(running.getId(), 0);
+        Page pg = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        // the page of the running transaction is now the least recently used
+        bp.getPage(tid, new HeapPageId(done.getId(), 0), Permissions.READ_ONLY);
+        access(bp, file, tid, 0);
+        assertSame(pg, bp.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(tid, pg.isDirty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePinTest.class);
+    }
+}
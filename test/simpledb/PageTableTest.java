@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private static final int NUM_PAGES = 1000;
+
+    private HeapPage[] pages;
+
+    @Before public void createPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 0, null, null);
+        pages = new HeapPage[NUM_PAGES];
+        byte[] data = HeapPage.createEmptyPageData();
+        for (int i = 0; i < NUM_PAGES; i++) {
+            pages[i] = new HeapPage(new HeapPageId(f.getId(), i), data);
+        }
+    }
+
+    private long key(int i) {
+        return pages[i].getId().pack();
+    }
+
+    /**
+     * Pages put in the table should be found by their packed ids until they
+     * are removed, through as many rebuilds as it takes.
+     */
+    @Test public void putGetRemove() {
+        PageTable table = new PageTable(8);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < NUM_PAGES; i++) {
+                table.put(key(i), pages[i]);
+            }
+            assertEquals(NUM_PAGES, table.size());
+            for (int i = 0; i < NUM_PAGES; i++) {
+                assertSame(pages[i], table.get(key(i)));
+            }
+            for (int i = 0; i < NUM_PAGES; i += 2) {
+                assertSame(pages[i], table.remove(key(i)));
+                assertNull(table.remove(key(i)));
+            }
+            assertEquals(NUM_PAGES / 2, table.size());
+            for (int i = 0; i < NUM_PAGES; i++) {
+                assertEquals(i % 2 == 0 ? null : pages[i], table.get(key(i)));
+            }
+        }
+        assertNull(table.get(new HeapPageId(pages[0].getId().getTableId() + 1, 0).pack()));
+
+        HeapPage copy = pages[1].getBeforeImage();
+        table.put(key(1), copy);
+        assertSame(copy, table.get(key(1)));
+        assertEquals(NUM_PAGES / 2, table.size());
+    }
+
+    /**
+     * A reader racing the writer should find either nothing or the page
+     * with the id it asked for.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        PageTable table = new PageTable(16);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                int i = 0;
+                while (!done.get()) {
+                    Page pg = table.get(key(i));
+                    if (pg != null && pg != pages[i]) {
+                        error.set("found " + pg.getId() + " for " + pages[i].getId());
+                    }
+                    i = (i + 1) % NUM_PAGES;
+                }
+            });
+            readers[t].start();
+        }
+        for (int round = 0; round < 200; round++) {
+            for (int i = round % 3; i < NUM_PAGES; i += 3) {
+                table.put(key(i), pages[i]);
+            }
+            for (int i = round % 5; i < NUM_PAGES; i += 2) {
+                table.remove(key(i));
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * The values of a field should be stored next to each other, and the page
+     * should read back what was inserted.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getNumEmptySlots();
+        assertEquals(504, free);
+        for (int i = 0; i < free; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, -i }));
+        }
+
+        byte[] data = page.getPageData();
+        assertEquals(PaxHeapPage.FORMAT_VERSION, data[0]);
+        int headerSize = 1 + (free + 7) / 8;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int i = 0; i < free; i++) {
+            assertEquals(i, buf.getInt(headerSize + 4 * i));
+            assertEquals(-i, buf.getInt(headerSize + 4 * free + 4 * i));
+        }
+
+        PaxHeapPage reread = new PaxHeapPage(pid, data);
+        Iterator<Tuple> it = reread.iterator();
+        for (int i = 0; i < free; i++) {
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { i, -i }), it.next()));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * getIntColumn should reflect the slots in use and changes made since the
+     * page was read.
+     */
+    @Test public void intColumn() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, 100 + i }));
+        }
+        page = new PaxHeapPage(pid, page.getPageData());
+
+        List<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        page.deleteTuple(tuples.get(3));
+        tuples.get(5).setField(1, new IntField(-5));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 20, 120 }));
+
+        int[] column = page.getIntColumn(1);
+        assertEquals(page.getNumEmptySlots() + 10, column.length);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(page.isSlotUsed(i));
+            int expected = i == 3 ? 120 : i == 5 ? -5 : 100 + i;
+            assertEquals(expected, column[i]);
+        }
+        assertFalse(page.isSlotUsed(10));
+        assertEquals(0, column[10]);
+    }
+
+    /**
+     * A zeroed page should read as an empty PAX page, and a page of another
+     * format should not read at all.
+     */
+    @Test public void formatVersion() throws Exception {
+        PaxHeapPage zeroed = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(504, zeroed.getNumEmptySlots());
+        assertEquals(PaxHeapPage.FORMAT_VERSION, zeroed.getPageData()[0]);
+        zeroed.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(PaxHeapPage.FORMAT_VERSION, zeroed.getBeforeImage().getPageData()[0]);
+
+        HeapPage fixed = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 20; i++) {
+            fixed.insertTuple(Utility.getHeapTuple(new int[] { i, i }));
+        }
+        try {
+            new PaxHeapPage(pid, fixed.getPageData());
+            fail("read a FIXED page as a PAX page");
+        } catch (IOException expected) {
+        }
+    }
+
+    /**
+     * iterator(Predicate) should hand out the tuples whose int field satisfies
+     * the predicate, changes made since the page was read included.
+     */
+    @Test public void predicateReadsColumn() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(Utility.getHeapTuple(new int[] { i, 100 + i }));
+        }
+        page = new PaxHeapPage(pid, page.getPageData());
+        List<Tuple> tuples = new ArrayList<>();
+        page.iterator().forEachRemaining(tuples::add);
+        page.deleteTuple(tuples.get(2));
+        tuples.get(7).setField(1, new IntField(0));
+
+        Iterator<Tuple> it = page.iterator(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(105)));
+        for (int i : new int[] { 0, 1, 3, 4, 7 }) {
+            assertTrue(it.hasNext());
+            assertEquals(i, ((IntField) it.next().getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * A file written by HeapFileEncoder in the PAX format should read back,
+     * also through a filtered SeqScan.
+     */
+    @Test public void encoderWritesPax() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        List<List<Integer>> rows = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            rows.add(List.of(i, 2 * i));
+        }
+        HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 2, HeapPageFormat.PAX);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.PAX, false);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(3, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (List<Integer> row : rows) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { row.get(0), row.get(1) }), it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2000)),
+                new SeqScan(tid, hf.getId()));
+        filter.open();
+        for (int i = 1000; i < 1200; i++) {
+            assertTrue(filter.hasNext());
+            assertEquals(i, ((IntField) filter.next().getField(0)).getValue());
+        }
+        assertFalse(filter.hasNext());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A PAX HeapFile should store the tuples inserted into it.
+     */
+    @Test public void heapFile() throws Exception {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), HeapPageFormat.PAX, false);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            tuples.add(Utility.getHeapTuple(new int[] { i, 2 * i }));
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(3, hf.numPages());
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (Tuple t : tuples) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
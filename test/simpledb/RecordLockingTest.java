@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class RecordLockingTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10;
+
+    private BufferPool bp;
+    private HeapFile file;
+    private HeapPageId p0;
+
+    @Before public void createFile() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = SystemTestUtil.createRandomHeapFile(2, ROWS, null, new ArrayList<>());
+        p0 = new HeapPageId(file.getId(), 0);
+    }
+
+    /** @return the first field of every tuple of the table, read by a new transaction */
+    private List<Integer> scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        return values;
+    }
+
+    /**
+     * Transactions inserting into the same page should not wait for each
+     * other, and the abort of one should only take back its own tuple.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Tuple t1 = Utility.getHeapTuple(-1, 2);
+        Tuple t2 = Utility.getHeapTuple(-2, 2);
+        bp.insertTuple(tid1, file.getId(), t1);
+        bp.insertTuple(tid2, file.getId(), t2);
+        assertEquals(p0, t1.getRecordId().getPageId());
+        assertEquals(p0, t2.getRecordId().getPageId());
+        assertTrue(bp.holdsLock(tid1, t1.getRecordId()));
+        assertFalse(bp.holdsLock(tid1, t2.getRecordId()));
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        List<Integer> values = scan();
+        assertEquals(ROWS + 1, values.size());
+        assertTrue(values.contains(-2));
+        assertFalse(values.contains(-1));
+
+        // the committed tuple survives the whole page going back to its before image
+        TransactionId tid3 = new TransactionId();
+        bp.getPage(tid3, p0, Permissions.READ_WRITE);
+        bp.insertTuple(tid3, file.getId(), Utility.getHeapTuple(-3, 2));
+        bp.transactionComplete(tid3, false);
+        values = scan();
+        assertTrue(values.contains(-2));
+        assertFalse(values.contains(-3));
+    }
+
+    /**
+     * A delete should be undone in its own slot, which other transactions
+     * do not insert into in the meantime.
+     */
+    @Test public void deleteUndoneInPlace() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = file.iterator(null);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        Tuple victim = tuples.get(0);
+        int slot = victim.getRecordId().getTupleNumber();
+        bp.deleteTuple(tid1, victim);
+
+        TransactionId tid2 = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid2, file.getId(), t);
+        assertEquals(p0, t.getRecordId().getPageId());
+        assertNotEquals(slot, t.getRecordId().getTupleNumber());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        List<Integer> values = scan();
+        assertEquals(ROWS + 1, values.size());
+        assertTrue(values.contains(((IntField) victim.getField(0)).getValue()));
+        assertTrue(((HeapPage) bp.getPage(null, p0, Permissions.READ_ONLY)).isSlotUsed(slot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
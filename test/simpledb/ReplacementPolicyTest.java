@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int NUM_PAGES = 200;
+
+    /** A HeapFile of empty pages that counts the pages read from it. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        static CountingHeapFile create(int numPages) throws Exception {
+            File f = File.createTempFile("policy", ".dat");
+            f.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                raf.setLength((long) numPages * BufferPool.getPageSize());
+            }
+            CountingHeapFile file = new CountingHeapFile(f, Utility.getTupleDesc(1));
+            Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+            return file;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile file;
+    private TransactionId tid;
+
+    @Before public void createFile() throws Exception {
+        file = CountingHeapFile.create(NUM_PAGES);
+        tid = new TransactionId();
+    }
+
+    /** Accesses the given pages and returns how many had to be read. */
+    static int access(BufferPool bp, CountingHeapFile file, TransactionId tid, int... pgNos)
+            throws Exception {
+        int before = file.reads.get();
+        for (int pgNo : pgNos) {
+            bp.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        return file.reads.get() - before;
+    }
+
+    private int access(BufferPool bp, int... pgNos) throws Exception {
+        return access(bp, file, tid, pgNos);
+    }
+
+    static int[] range(int from, int to) {
+        int[] r = new int[to - from];
+        for (int i = from; i < to; i++) {
+            r[i - from] = i;
+        }
+        return r;
+    }
+
+    /**
+     * Every policy should keep pages that fit in the pool, and stay within
+     * its capacity when they do not.
+     */
+    @Test public void cachesPages() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(10, policy);
+            assertSame(policy, bp.getPolicy());
+            assertEquals(policy.toString(), 10, access(bp, range(0, 10)));
+            assertEquals(policy.toString(), 0, access(bp, range(0, 10)));
+            assertEquals(policy.toString(), 50, access(bp, range(10, 60)));
+            assertEquals(policy.toString(), 50, access(bp, range(100, 150)));
+        }
+    }
+
+    /**
+     * LRU should evict the page that was used least recently, which is not
+     * necessarily the one that came in first.
+     */
+    @Test public void lru() throws Exception {
+        BufferPool bp = new BufferPool(3, ReplacementPolicy.LRU);
+        access(bp, 0, 1, 2, 0, 3);
+        assertEquals(0, access(bp, 0, 2, 3));
+        assertEquals(1, access(bp, 1));
+    }
+
+    /**
+     * A clean page should be evicted before a dirty one, whatever the order
+     * of the policy.
+     */
+    @Test public void cleanPagesFirst() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(2, policy);
+            access(bp, 0, 1);
+            bp.getPage(tid, new HeapPageId(file.getId(), 0), Permissions.READ_WRITE).markDirty(true, tid);
+            access(bp, 1, 2);
+            assertEquals(policy.toString(), 0, access(bp, 0));
+        }
+    }
+
+    /**
+     * Scan resistant policies should keep pages that are used over and over
+     * through a scan of more pages than the pool holds; LRU does not.
+     */
+    @Test public void scanResistance() throws Exception {
+        int[] hot = range(0, 5);
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(20, policy);
+            // the hot pages, with a few other pages in between
+            for (int round = 0; round < 5; round++) {
+                access(bp, hot);
+                access(bp, range(10 + 10 * round, 20 + 10 * round));
+            }
+            access(bp, hot);
+            access(bp, range(100, 200));
+            int reread = access(bp, hot);
+            if (policy == ReplacementPolicy.LRU || policy == ReplacementPolicy.CLOCK) {
+                assertEquals(policy.toString(), hot.length, reread);
+            } else {
+                assertEquals(policy.toString(), 0, reread);
+            }
+        }
+    }
+
+    /**
+     * Policies should be found by the names the system property takes.
+     */
+    @Test public void policyNames() {
+        assertSame(ReplacementPolicy.ARC, ReplacementPolicy.forName("arc"));
+        assertSame(ReplacementPolicy.LRU_K, ReplacementPolicy.forName("lru-k"));
+        assertSame(ReplacementPolicy.TWO_Q, ReplacementPolicy.forName("2q"));
+        assertSame(ReplacementPolicy.CLOCK, ReplacementPolicy.forName("CLOCK"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    @Before public void addTable() {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<Tuple> contents(HeapPage page) {
+        List<Tuple> result = new ArrayList<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            result.add(it.next());
+        }
+        return result;
+    }
+
+    /**
+     * Short strings should take only the room they need, and the page should
+     * survive a round trip through getPageData.
+     */
+    @Test public void insertAndReread() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "string " + n))) {
+            Tuple t = tuple(n, "string " + n);
+            page.insertTuple(t);
+            assertEquals(new RecordId(pid, n), t.getRecordId());
+            n++;
+        }
+        // a fixed-width page of (int, string) tuples holds 30
+        int fixed = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        assertTrue(n > 4 * fixed);
+
+        SlottedHeapPage reread = new SlottedHeapPage(pid, page.getPageData());
+        List<Tuple> tuples = contents(reread);
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i, "string " + i), tuples.get(i)));
+            assertEquals(new RecordId(pid, i), tuples.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Deleted space should be reused by compacting the page, without changing
+     * the RecordIds of the remaining tuples.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        String longString = new String(new char[Type.STRING_LEN]).replace('\0', 'x');
+        while (page.hasRoomFor(tuple(0, longString))) {
+            Tuple t = tuple(inserted.size(), longString);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+
+        // free every other record; none of the holes is at the free end
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        try {
+            page.deleteTuple(inserted.get(0));
+            fail("deleted a tuple twice");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the holes are scattered, so using them needs the page compacted
+        Tuple small = tuple(-1, "");
+        int added = 0;
+        while (page.hasRoomFor(small)) {
+            page.insertTuple(tuple(-1, ""));
+            added++;
+        }
+        assertTrue(added > inserted.size() / 2);
+
+        List<Tuple> tuples = contents(new SlottedHeapPage(pid, page.getPageData()));
+        assertEquals(inserted.size() - (inserted.size() + 1) / 2 + added, tuples.size());
+        for (Tuple t : tuples) {
+            int i = ((IntField) t.getField(0)).getValue();
+            if (i >= 0) {
+                assertEquals(1, i % 2);
+                assertEquals(inserted.get(i).getRecordId(), t.getRecordId());
+                assertTrue(TestUtil.compareTuples(inserted.get(i), t));
+            }
+        }
+    }
+
+    /**
+     * A zeroed page is empty, a page in another format is rejected.
+     */
+    @Test public void formatVersion() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, new byte[BufferPool.getPageSize()]);
+        assertFalse(page.iterator().hasNext());
+        assertTrue(page.hasRoomFor(tuple(0, "")));
+
+        byte[] data = SlottedHeapPage.createEmptyPageData();
+        data[0] = SlottedHeapPage.FORMAT_VERSION + 1;
+        try {
+            new SlottedHeapPage(pid, data);
+            fail("read a page of an unknown format version");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A slotted HeapFile should store the tuples inserted into it.
+     */
+    @Test public void heapFile() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile hf = new HeapFile(f, TD, HeapPageFormat.SLOTTED, false);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tuples.add(tuple(i, "v" + i));
+        }
+        Database.getBufferPool().insertTuples(tid, hf.getId(), tuples);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(1000, "v1000"));
+        tuples.add(tuple(1000, "v1000"));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        for (Tuple t : tuples) {
+            assertTrue(it.hasNext());
+            assertTrue(TestUtil.compareTuples(t, it.next()));
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        assertTrue(hf.numPages() < 1000 / 30);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
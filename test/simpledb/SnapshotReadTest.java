@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the pages of the table read through the file channel into the
+ * heap, read out of a memory mapping of the file, and kept in an off-heap
+ * pool, since each of these holds the bytes of a page somewhere else.
+ */
+@RunWith(Parameterized.class)
+public class SnapshotReadTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 10;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> storage() {
+        return Arrays.asList(new Object[][] { { "heap" }, { "mmap" }, { "off-heap" } });
+    }
+
+    @Parameterized.Parameter
+    public String storage;
+
+    private BufferPool bp;
+    private HeapFile file;
+    private HeapPageId p0;
+    private List<List<Integer>> rows;
+
+    @Before public void createFile() throws Exception {
+        if (storage.equals("off-heap")) {
+            System.setProperty(BufferPool.OFF_HEAP_PROPERTY, "true");
+        }
+        try {
+            bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        } finally {
+            System.clearProperty(BufferPool.OFF_HEAP_PROPERTY);
+        }
+        rows = new ArrayList<>();
+        file = storage.equals("mmap")
+                ? SystemTestUtil.createRandomMappedHeapFile(2, ROWS, rows)
+                : SystemTestUtil.createRandomHeapFile(2, ROWS, null, rows);
+        p0 = new HeapPageId(file.getId(), 0);
+    }
+
+    /** @return the first field of every tuple of the table, as tid reads it */
+    private List<Integer> scan(TransactionId tid) throws Exception {
+        List<Integer> values = new ArrayList<>();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        it.close();
+        return values;
+    }
+
+    /**
+     * A snapshot should not see the changes of a writer that is running, nor
+     * those committed after it was taken, and should not lock the pages it
+     * reads.
+     */
+    @Test public void laterCommitsInvisible() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.insertTuple(writer, file.getId(), Utility.getHeapTuple(-1, 2));
+
+        TransactionId snapshot = new TransactionId();
+        bp.beginSnapshot(snapshot);
+        List<Integer> values = scan(snapshot);
+        assertEquals(ROWS, values.size());
+        assertFalse(values.contains(-1));
+        assertFalse(bp.holdsLock(snapshot, p0));
+
+        bp.transactionComplete(writer, true);
+        assertTrue(bp.getNumVersions() > 0);
+        values = scan(snapshot);
+        assertEquals(ROWS, values.size());
+        assertFalse(values.contains(-1));
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertTrue(scan(later).contains(-1));
+        bp.transactionComplete(later);
+        bp.transactionComplete(snapshot);
+        assertEquals(0, bp.getNumVersions());
+    }
+
+    /**
+     * A snapshot should read the old version of a page whose newer version
+     * was written out and evicted.
+     */
+    @Test public void versionsOutliveEviction() throws Exception {
+        TransactionId snapshot = new TransactionId();
+        bp.beginSnapshot(snapshot);
+        List<Integer> before = scan(snapshot);
+
+        TransactionId writer = new TransactionId();
+        Tuple victim = ((HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(writer, victim);
+        bp.transactionComplete(writer, true);
+        bp.flushAllPages();
+        bp.discardPage(p0);
+
+        assertEquals(before, scan(snapshot));
+        bp.transactionComplete(snapshot);
+        assertEquals(0, bp.getNumVersions());
+    }
+
+    /**
+     * Tuples a snapshot read should keep their values when a later commit
+     * writes new records into the same slots, on the page and on disk.
+     */
+    @Test public void tuplesOutliveLaterCommits() throws Exception {
+        TransactionId snapshot = new TransactionId();
+        bp.beginSnapshot(snapshot);
+        List<Tuple> handedOut = new ArrayList<>();
+        DbFileIterator it = file.iterator(snapshot);
+        it.open();
+        while (it.hasNext()) {
+            handedOut.add(it.next());
+        }
+        it.close();
+
+        TransactionId writer = new TransactionId();
+        Tuple victim = ((HeapPage) bp.getPage(writer, p0, Permissions.READ_WRITE)).iterator().next();
+        bp.deleteTuple(writer, victim);
+        bp.insertTuple(writer, file.getId(), Utility.getHeapTuple(-7, 2));
+        bp.transactionComplete(writer, true);
+        bp.flushAllPages();
+
+        assertEquals(ROWS, handedOut.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(rows.get(i), SystemTestUtil.tupleToList(handedOut.get(i)));
+        }
+        assertFalse(scan(snapshot).contains(-7));
+        bp.transactionComplete(snapshot);
+    }
+
+    /**
+     * Writers should not wait for snapshots, which cannot write.
+     */
+    @Test public void readOnly() throws Exception {
+        TransactionId snapshot = new TransactionId();
+        bp.beginSnapshot(snapshot);
+        DbFileIterator it = file.iterator(snapshot);
+        it.open();
+        Tuple t = it.next();
+
+        TransactionId writer = new TransactionId();
+        bp.getPage(writer, p0, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(writer, p0));
+        try {
+            bp.deleteTuple(snapshot, t);
+            fail("a snapshot deleted a tuple");
+        } catch (DbException e) {
+            // expected
+        }
+        it.close();
+        bp.transactionComplete(writer, true);
+        bp.transactionComplete(snapshot);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ReplacementPolicyTest.CountingHeapFile;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+import static simpledb.ReplacementPolicyTest.access;
+import static simpledb.ReplacementPolicyTest.range;
+
+public class WarmUpSnapshotTest extends SimpleDbTestBase {
+
+    private CountingHeapFile file;
+    private TransactionId tid;
+    private File snapshot;
+
+    @Before public void createFile() throws Exception {
+        file = CountingHeapFile.create(100);
+        tid = new TransactionId();
+        snapshot = File.createTempFile("snapshot", ".dat");
+        snapshot.deleteOnExit();
+    }
+
+    /**
+     * A pool warmed up from a snapshot should hold the pages of the pool the
+     * snapshot was taken of.
+     */
+    @Test public void saveAndWarmUp() throws Exception {
+        for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+            BufferPool bp = new BufferPool(20, policy, 2);
+            access(bp, file, tid, range(30, 40));
+            access(bp, file, tid, range(5, 10));
+            bp.saveSnapshot(snapshot);
+
+            BufferPool restarted = new BufferPool(20, policy, 2);
+            assertEquals(policy.toString(), 15, restarted.warmUp(snapshot, true));
+            assertEquals(policy.toString(), 0, access(restarted, file, tid, range(30, 40)));
+            assertEquals(policy.toString(), 0, access(restarted, file, tid, range(5, 10)));
+        }
+    }
+
+    /**
+     * A smaller pool should be warmed up with the hottest pages of the
+     * snapshot.
+     */
+    @Test public void hottestPagesFirst() throws Exception {
+        BufferPool bp = new BufferPool(10, ReplacementPolicy.LRU);
+        access(bp, file, tid, range(0, 10));
+        bp.saveSnapshot(snapshot);
+
+        BufferPool restarted = new BufferPool(5, ReplacementPolicy.LRU);
+        assertEquals(5, restarted.warmUp(snapshot, true));
+        assertEquals(0, access(restarted, file, tid, range(5, 10)));
+    }
+
+    /**
+     * Warming up with no snapshot should load nothing.
+     */
+    @Test public void noSnapshot() throws Exception {
+        assertTrue(snapshot.delete());
+        assertEquals(0, new BufferPool(10).warmUp(snapshot, true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmUpSnapshotTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * getPage throughput of a buffer pool shared by many threads, with one shard
+ * and with the default number of shards for the pool.
+ * <p>
+ * Each thread gets random pages of a table that fits in the pool, so after
+ * warm-up every access is a hit and the only thing threads share is the
+ * pool's locking.
+ * <p>
+ * Run with: ant runbench -Dbench=BufferPoolContentionBenchmark
+ */
+public class BufferPoolContentionBenchmark {
+    private static final int NUM_PAGES = 4096;
+    private static final int THREADS = 32;
+    private static final int ACCESSES_PER_THREAD = 200000;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        File f = File.createTempFile("contentionbench", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) NUM_PAGES * BufferPool.getPageSize());
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "contentionbench");
+        int defaultShards = new BufferPool(NUM_PAGES).getNumShards();
+        System.out.println("table: " + NUM_PAGES + " pages, " + THREADS + " threads, "
+                + ACCESSES_PER_THREAD + " accesses each, "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            for (ReplacementPolicy policy : new ReplacementPolicy[] { ReplacementPolicy.LRU, ReplacementPolicy.CLOCK }) {
+                for (int shards : new int[] { 1, defaultShards }) {
+                    BufferPool bp = new BufferPool(NUM_PAGES, policy, shards);
+                    TransactionId tid = new TransactionId();
+                    for (int pgNo = 0; pgNo < NUM_PAGES; pgNo++) {
+                        bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+                    }
+
+                    List<Future<?>> results = new ArrayList<>();
+                    long start = System.nanoTime();
+                    for (int t = 0; t < THREADS; t++) {
+                        int seed = t;
+                        results.add(pool.submit(() -> {
+                            Random r = new Random(seed);
+                            for (int i = 0; i < ACCESSES_PER_THREAD; i++) {
+                                bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(NUM_PAGES)),
+                                        Permissions.READ_ONLY);
+                            }
+                            return null;
+                        }));
+                    }
+                    for (Future<?> result : results) {
+                        result.get();
+                    }
+                    long nanos = System.nanoTime() - start;
+                    double perSec = (double) THREADS * ACCESSES_PER_THREAD / (nanos / 1e9);
+                    System.out.printf("%-6s %3d shard(s) %12.0f getPage/s%n", policy, shards, perSec);
+                }
+            }
+        }
+        pool.shutdown();
+    }
+}
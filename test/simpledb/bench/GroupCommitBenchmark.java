@@ -0,0 +1,86 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Throughput of tiny insert transactions, each inserting one tuple and
+ * committing, as the group commit wait of the log grows (see
+ * {@link LogFile#setGroupCommitWait}), with the number of commits that
+ * shared each force of the log.
+ * <p>
+ * A transaction aborted by deadlock detection or the lock timeout is
+ * retried with a new transaction.
+ * <p>
+ * Run with: ant runbench -Dbench=GroupCommitBenchmark
+ */
+public class GroupCommitBenchmark {
+    private static final int THREADS = 16;
+    private static final int TXNS_PER_THREAD = 500;
+    private static final long[] WAITS_MICROS = { 0, 100, 1000 };
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(THREADS + " threads, " + TXNS_PER_THREAD + " transactions each, "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            for (long wait : WAITS_MICROS) {
+                Database.reset();
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 4);
+                HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+                Database.getLogFile().setGroupCommitWait(wait);
+                run(pool, hf, wait);
+            }
+        }
+        pool.shutdown();
+    }
+
+    private static void run(ExecutorService pool, HeapFile hf, long wait) throws Exception {
+        LogFile log = Database.getLogFile();
+        List<Future<?>> results = new ArrayList<>();
+        int forces = log.getNumForces();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < TXNS_PER_THREAD; i++) {
+                    while (true) {
+                        Transaction txn = new Transaction();
+                        txn.start();
+                        try {
+                            Database.getBufferPool().insertTuple(txn.getId(), hf.getId(),
+                                    Utility.getHeapTuple(new int[] { thread, i }));
+                        } catch (TransactionAbortedException e) {
+                            txn.abort();
+                            continue;
+                        }
+                        txn.commit();
+                        break;
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long nanos = System.nanoTime() - start;
+        int commits = THREADS * TXNS_PER_THREAD;
+        System.out.printf("wait %5d us %10.0f commits/s %6.1f commits/force%n",
+                wait, commits / (nanos / 1e9), (double) commits / (log.getNumForces() - forces));
+    }
+}
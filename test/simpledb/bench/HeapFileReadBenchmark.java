@@ -0,0 +1,89 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * Random page read throughput of a HeapFile.
+ * <p>
+ * Compares the stream based access HeapFile.readPage used to do (open a
+ * FileInputStream, skip to the page, read it) against positional reads on a
+ * single long-lived FileChannel, and reports the end-to-end throughput of
+ * HeapFile.readPage, which also includes building the HeapPage.
+ * <p>
+ * Run with: ant runbench -Dbench=HeapFileReadBenchmark
+ */
+public class HeapFileReadBenchmark {
+    private static final int NUM_PAGES = 2048;
+    private static final int NUM_READS = 50000;
+
+    public static void main(String[] args) throws IOException {
+        Database.reset();
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (8 * 8 + 1);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, tuplesPerPage * NUM_PAGES, null, null);
+        int numPages = hf.numPages();
+        System.out.println("table: " + numPages + " pages, " + NUM_READS + " random reads per run");
+
+        int[] pages = new int[NUM_READS];
+        Random rand = new Random(42);
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = rand.nextInt(numPages);
+        }
+
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            report("stream open+skip+read", streamReads(hf, pages));
+            report("channel positional read", channelReads(hf, pages));
+            report("HeapFile.readPage", heapFileReads(hf, pages));
+        }
+    }
+
+    private static long streamReads(HeapFile hf, int[] pages) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            try (FileInputStream in = new FileInputStream(hf.getFile())) {
+                in.skip((long) pgNo * data.length);
+                in.read(data);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long channelReads(HeapFile hf, int[] pages) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        try (FileChannel ch = FileChannel.open(hf.getFile().toPath(), StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            for (int pgNo : pages) {
+                buf.clear();
+                long offset = (long) pgNo * buf.capacity();
+                while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0) {
+                }
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    private static long heapFileReads(HeapFile hf, int[] pages) {
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            hf.readPage(new HeapPageId(hf.getId(), pgNo));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos) {
+        double perSec = NUM_READS / (nanos / 1e9);
+        System.out.printf("%-26s %10.0f pages/s  (%.2f us/page)%n", name, perSec, nanos / 1e3 / NUM_READS);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of short single-row update transactions run under two-phase
+ * locking and optimistically (see {@link BufferPool#beginOptimistic}), as
+ * contention grows.
+ * <p>
+ * Each transaction reads a random page of the hot pages of a table, deletes
+ * a random tuple of it and inserts the tuple back with its first field
+ * incremented. Under two-phase locking, a transaction that is aborted, by
+ * deadlock detection or the lock timeout, is retried with a new transaction;
+ * so is an optimistic transaction that fails validation. The fewer the hot
+ * pages, the more transactions work on the same pages at once.
+ * <p>
+ * Run with: ant runbench -Dbench=OptimisticContentionBenchmark
+ */
+public class OptimisticContentionBenchmark {
+    private static final int NUM_PAGES = 64;
+    private static final int THREADS = 8;
+    private static final int TXNS_PER_THREAD = 2000;
+    private static final int[] HOT_PAGES = { 64, 8, 1 };
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        System.out.println("table: " + NUM_PAGES + " pages, " + THREADS + " threads, "
+                + TXNS_PER_THREAD + " transactions each, "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            for (int hot : HOT_PAGES) {
+                for (boolean optimistic : new boolean[] { false, true }) {
+                    Database.resetBufferPool(4 * NUM_PAGES);
+                    HeapFile hf = SystemTestUtil.createRandomHeapFile(2, NUM_PAGES * tuplesPerPage, null, null);
+                    run(pool, hf, hot, optimistic);
+                }
+            }
+        }
+        pool.shutdown();
+    }
+
+    private static void run(ExecutorService pool, HeapFile hf, int hot, boolean optimistic)
+            throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        AtomicLong retries = new AtomicLong();
+        List<Future<?>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < TXNS_PER_THREAD; i++) {
+                    int pgNo = r.nextInt(hot);
+                    while (true) {
+                        TransactionId tid = new TransactionId();
+                        if (optimistic) {
+                            bp.beginOptimistic(tid);
+                        }
+                        try {
+                            update(bp, tid, hf, pgNo, r);
+                        } catch (TransactionAbortedException e) {
+                            bp.transactionComplete(tid, false);
+                            retries.incrementAndGet();
+                            continue;
+                        }
+                        if (bp.transactionComplete(tid, true)) {
+                            break;
+                        }
+                        retries.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long nanos = System.nanoTime() - start;
+        double perSec = (double) THREADS * TXNS_PER_THREAD / (nanos / 1e9);
+        System.out.printf("%-10s %2d hot page(s) %10.0f commits/s %8d retries%n",
+                optimistic ? "optimistic" : "2PL", hot, perSec, retries.get());
+    }
+
+    /** Deletes a random tuple of a page and inserts it back, changed. */
+    private static void update(BufferPool bp, TransactionId tid, HeapFile hf, int pgNo, Random r)
+            throws Exception {
+        HeapPage pg = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        List<Tuple> tuples = new ArrayList<>();
+        pg.iterator().forEachRemaining(tuples::add);
+        if (tuples.isEmpty()) {
+            return;
+        }
+        Tuple old = tuples.get(r.nextInt(tuples.size()));
+        Tuple updated = new Tuple(old.getTupleDesc());
+        updated.setField(0, new IntField(((IntField) old.getField(0)).getValue() + 1));
+        updated.setField(1, old.getField(1));
+        bp.deleteTuple(tid, old);
+        bp.insertTuple(tid, hf.getId(), updated);
+    }
+}
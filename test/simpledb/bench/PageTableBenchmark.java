@@ -0,0 +1,103 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.PageTable;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lookup throughput of the page index of a buffer pool shard, a PageTable
+ * keyed on packed page ids, against a ConcurrentHashMap keyed on PageId.
+ * Map lookups allocate a HeapPageId each, as getPage callers do, and go
+ * through its hashCode and equals; PageTable lookups pack the id from the
+ * table id and page number and allocate nothing.
+ * <p>
+ * Each thread looks up random pages of a table that is wholly indexed, so
+ * every lookup is a hit.
+ * <p>
+ * Run with: ant runbench -Dbench=PageTableBenchmark
+ */
+public class PageTableBenchmark {
+    private static final int NUM_PAGES = 4096;
+    private static final int THREADS = 8;
+    private static final int LOOKUPS_PER_THREAD = 5000000;
+
+    private interface Lookup {
+        Page get(int tableId, int pgNo);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        File f = File.createTempFile("pagetablebench", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) NUM_PAGES * BufferPool.getPageSize());
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, "pagetablebench");
+        int tableId = hf.getId();
+
+        ConcurrentHashMap<PageId, Page> map = new ConcurrentHashMap<>();
+        PageTable table = new PageTable(NUM_PAGES);
+        byte[] data = HeapPage.createEmptyPageData();
+        for (int pgNo = 0; pgNo < NUM_PAGES; pgNo++) {
+            HeapPageId pid = new HeapPageId(tableId, pgNo);
+            HeapPage pg = new HeapPage(pid, data);
+            map.put(pid, pg);
+            table.put(pid.pack(), pg);
+        }
+        System.out.println("index: " + NUM_PAGES + " pages, " + THREADS + " threads, "
+                + LOOKUPS_PER_THREAD + " lookups each, "
+                + Runtime.getRuntime().availableProcessors() + " cpus");
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            run(pool, "ConcurrentHashMap", tableId, (t, pgNo) -> map.get(new HeapPageId(t, pgNo)));
+            run(pool, "PageTable", tableId, (t, pgNo) -> table.get(PageId.pack(t, 0, pgNo)));
+        }
+        pool.shutdown();
+    }
+
+    private static void run(ExecutorService pool, String name, int tableId, Lookup lookup)
+            throws Exception {
+        List<Future<Integer>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                int found = 0;
+                for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                    if (lookup.get(tableId, r.nextInt(NUM_PAGES)) != null) {
+                        found++;
+                    }
+                }
+                return found;
+            }));
+        }
+        for (Future<Integer> result : results) {
+            if (result.get() != LOOKUPS_PER_THREAD) {
+                throw new IllegalStateException(name + " missed a page");
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        double perSec = (double) THREADS * LOOKUPS_PER_THREAD / (nanos / 1e9);
+        System.out.printf("%-18s %14.0f lookups/s%n", name, perSec);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Hit ratio and throughput of the buffer pool under each replacement policy.
+ * <p>
+ * Replays page access traces against a table of NUM_PAGES pages through a
+ * pool of POOL_PAGES pages:
+ * <ul>
+ * <li>oltp: random accesses, 80% of them to a hot 20% of the table</li>
+ * <li>scan-heavy: the oltp trace, with a full table scan every 20000
+ * accesses</li>
+ * <li>loop: repeated scans of a range 20% larger than the pool</li>
+ * <li>dirty-heavy: the oltp trace over the rest of the table, while a
+ * running transaction keeps DIRTY_PAGES pages of the pool dirty. Those pages
+ * cannot be evicted, and each eviction walks past them.</li>
+ * </ul>
+ * The time per access includes reading missed pages, which come from the OS
+ * page cache after the first round.
+ * <p>
+ * Run with: ant runbench -Dbench=ReplacementPolicyBenchmark
+ */
+public class ReplacementPolicyBenchmark {
+    private static final int NUM_PAGES = 1000;
+    private static final int POOL_PAGES = 100;
+    private static final int NUM_ACCESSES = 200000;
+    private static final int DIRTY_PAGES = POOL_PAGES * 4 / 5;
+
+    private static int reads;
+
+    public static void main(String[] args) throws Exception {
+        Database.reset();
+        File f = File.createTempFile("policybench", ".dat");
+        f.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength((long) NUM_PAGES * BufferPool.getPageSize());
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(1)) {
+            @Override
+            public Page readPage(PageId pid) {
+                reads++;
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(hf, "policybench");
+
+        String[] names = { "oltp", "scan-heavy", "loop", "dirty-heavy" };
+        int[][] traces = { oltp(new Random(42)), scanHeavy(new Random(42)), loop(),
+                dirtyHeavy(new Random(42)) };
+        int[] dirty = { 0, 0, 0, DIRTY_PAGES };
+        System.out.println("table: " + NUM_PAGES + " pages, pool: " + POOL_PAGES + " pages, "
+                + NUM_ACCESSES + " accesses per trace");
+
+        // two rounds so the second one runs warm
+        for (int round = 0; round < 2; round++) {
+            for (int t = 0; t < traces.length; t++) {
+                for (ReplacementPolicy policy : ReplacementPolicy.values()) {
+                    run(hf, names[t], policy, traces[t], dirty[t]);
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static int[] oltp(Random rand) {
+        int[] trace = new int[NUM_ACCESSES];
+        int hot = NUM_PAGES / 5;
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = rand.nextInt(10) < 8 ? rand.nextInt(hot) : hot + rand.nextInt(NUM_PAGES - hot);
+        }
+        return trace;
+    }
+
+    private static int[] scanHeavy(Random rand) {
+        int[] trace = oltp(rand);
+        for (int start = 0; start + NUM_PAGES <= trace.length; start += 20000) {
+            for (int i = 0; i < NUM_PAGES; i++) {
+                trace[start + i] = i;
+            }
+        }
+        return trace;
+    }
+
+    private static int[] loop() {
+        int[] trace = new int[NUM_ACCESSES];
+        int range = POOL_PAGES * 6 / 5;
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = i % range;
+        }
+        return trace;
+    }
+
+    /** The oltp trace, over the pages after the first DIRTY_PAGES. */
+    private static int[] dirtyHeavy(Random rand) {
+        int[] trace = oltp(rand);
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = DIRTY_PAGES + trace[i] * (NUM_PAGES - DIRTY_PAGES) / NUM_PAGES;
+        }
+        return trace;
+    }
+
+    /**
+     * Replays pages against a new pool, after a writer dirtied the first
+     * dirty pages of the table. The writer aborts at the end.
+     */
+    private static void run(HeapFile hf, String trace, ReplacementPolicy policy, int[] pages,
+            int dirty) throws DbException, TransactionAbortedException, IOException {
+        BufferPool bp = new BufferPool(POOL_PAGES, policy);
+        TransactionId writer = new TransactionId();
+        for (int pgNo = 0; pgNo < dirty; pgNo++) {
+            Page pg = bp.getPage(writer, new HeapPageId(hf.getId(), pgNo), Permissions.READ_WRITE);
+            bp.markDirty(writer, pg);
+        }
+        TransactionId tid = new TransactionId();
+        reads = 0;
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), pgNo), Permissions.READ_ONLY);
+        }
+        long nanos = System.nanoTime() - start;
+        bp.transactionComplete(writer, false);
+        double hitRatio = 1 - (double) reads / pages.length;
+        System.out.printf("%-10s %-6s hit ratio %5.1f%%  %8.0f accesses/s  (%.2f us/access)%n",
+                trace, policy, hitRatio * 100, pages.length / (nanos / 1e9), nanos / 1e3 / pages.length);
+    }
+}
@@ -57,6 +57,18 @@ public class SystemTestUtil {
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
 
+    /**
+     * Like {@link #createRandomHeapFile(int, int, Map, List)}, but the
+     * HeapFile reads its pages out of a memory mapping of the file.
+     */
+    public static HeapFile createRandomMappedHeapFile(int columns, int rows,
+            List<List<Integer>> tuples) throws IOException {
+        File temp = createRandomHeapFileUnopened(columns, rows, MAX_RAND_VALUE, null, tuples);
+        HeapFile hf = new HeapFile(temp, Utility.getTupleDesc(columns), true);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
     public static File createRandomHeapFileUnopened(int columns, int rows,
             int maxValue, Map<Integer, Integer> columnSpecification,
             List<List<Integer>> tuples) throws IOException {